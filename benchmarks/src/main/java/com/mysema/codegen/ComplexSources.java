@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.model.Types;
+
+/**
+ * ComplexSources provides the expressions of ComplexEvaluationTest for the benchmarks
+ *
+ * @author tiwe
+ *
+ */
+final class ComplexSources {
+
+    static final ClassType STRING_LIST = new ClassType(TypeCategory.LIST, List.class, Types.STRING);
+
+    static final ClassType BOOLEAN_LIST = new ClassType(TypeCategory.LIST, List.class, Types.BOOLEAN);
+
+    static final String INTERSECTION =
+            "java.util.List<String> rv = new java.util.ArrayList<String>();\n" +
+            "for (String a : a_){\n" +
+            "    for (String b : b_){\n" +
+            "        if (a.equals(b)){\n" +
+            "            rv.add(a);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n" +
+            "return rv;";
+
+    static final String PRIMITIVE =
+            "java.util.List<Boolean> rv = new java.util.ArrayList<Boolean>();\n" +
+            "for (boolean a : a_){\n" +
+            "    for (boolean b : b_){\n" +
+            "        if (a == b){\n" +
+            "            rv.add(a);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n" +
+            "return rv;";
+
+    static final String EMBEDDED_CLASS =
+            "java.util.List<Boolean> rv = new java.util.ArrayList<Boolean>();\n" +
+            "for (boolean a : a_){\n" +
+            "    for (boolean b : b_){\n" +
+            "        if (a == b && new TestEmbedded().DO_RETURN()){\n" +
+            "            rv.add(a);\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n" +
+            "return rv;} private static class TestEmbedded { public TestEmbedded() {} " +
+            "public boolean DO_RETURN() { return true; } ";
+
+    static final String[] NAMES = { "a_", "b_" };
+
+    static final Class<?>[] CLASSES = { List.class, List.class };
+
+    static final List<String> STRINGS_A = Arrays.asList("1", "2", "3", "4");
+
+    static final List<String> STRINGS_B = Arrays.asList("2", "4", "6", "8");
+
+    private ComplexSources() {}
+
+    @SuppressWarnings("rawtypes")
+    static Evaluator<List> intersection(EvaluatorFactory factory) {
+        return factory.createEvaluator(INTERSECTION, STRING_LIST, NAMES,
+                new Type[] { STRING_LIST, STRING_LIST }, CLASSES,
+                Collections.<String, Object> emptyMap());
+    }
+
+    @SuppressWarnings("rawtypes")
+    static Evaluator<List> primitive(EvaluatorFactory factory) {
+        return factory.createEvaluator(PRIMITIVE, BOOLEAN_LIST, NAMES,
+                new Type[] { BOOLEAN_LIST, BOOLEAN_LIST }, CLASSES,
+                Collections.<String, Object> emptyMap());
+    }
+
+    @SuppressWarnings("rawtypes")
+    static Evaluator<List> embeddedClass(EvaluatorFactory factory) {
+        return factory.createEvaluator(EMBEDDED_CLASS, BOOLEAN_LIST, NAMES,
+                new Type[] { BOOLEAN_LIST, BOOLEAN_LIST }, CLASSES,
+                Collections.<String, Object> emptyMap());
+    }
+
+    /**
+     * JDKEvaluatorFactory needs an URLClassLoader, which the application class loader
+     * isn't on all JDKs
+     */
+    static URLClassLoader classLoader() {
+        String[] paths = System.getProperty("java.class.path").split(File.pathSeparator);
+        URL[] urls = new URL[paths.length];
+        try {
+            for (int i = 0; i < paths.length; i++) {
+                urls[i] = new File(paths[i]).toURI().toURL();
+            }
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+        return new URLClassLoader(urls, ComplexSources.class.getClassLoader());
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContentionBenchmark measures evaluator lookups and evaluation of a single factory
+ * shared between threads
+ *
+ * @author tiwe
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ContentionBenchmark {
+
+    private EvaluatorFactory factory;
+
+    @SuppressWarnings("rawtypes")
+    private Evaluator<List> shared;
+
+    @Setup
+    public void setUp() {
+        factory = new ECJEvaluatorFactory(getClass().getClassLoader());
+        shared = ComplexSources.intersection(factory);
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public List createAndEvaluate() {
+        return ComplexSources.intersection(factory).evaluate(ComplexSources.STRINGS_A,
+                ComplexSources.STRINGS_B);
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public List evaluateShared() {
+        return shared.evaluate(ComplexSources.STRINGS_A, ComplexSources.STRINGS_B);
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EvaluatorCreationBenchmark measures cold compilation with both compilers and
+ * cache hits of a warm factory
+ *
+ * @author tiwe
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EvaluatorCreationBenchmark {
+
+    /**
+     * A new factory per invocation, so that every creation compiles
+     */
+    @State(Scope.Thread)
+    public static class ColdFactories {
+
+        EvaluatorFactory jdk;
+
+        EvaluatorFactory ecj;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            jdk = new JDKEvaluatorFactory(ComplexSources.classLoader());
+            ecj = new ECJEvaluatorFactory(getClass().getClassLoader());
+        }
+
+    }
+
+    /**
+     * A factory, which has compiled the evaluators already
+     */
+    @State(Scope.Benchmark)
+    public static class WarmFactory {
+
+        EvaluatorFactory factory;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            factory = new ECJEvaluatorFactory(getClass().getClassLoader());
+            ComplexSources.intersection(factory);
+            ComplexSources.primitive(factory);
+            ComplexSources.embeddedClass(factory);
+        }
+
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public Evaluator<List> coldJDK(ColdFactories factories) {
+        return ComplexSources.intersection(factories.jdk);
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public Evaluator<List> coldECJ(ColdFactories factories) {
+        return ComplexSources.intersection(factories.ecj);
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public Evaluator<List> coldECJEmbeddedClass(ColdFactories factories) {
+        return ComplexSources.embeddedClass(factories.ecj);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @SuppressWarnings("rawtypes")
+    public Evaluator<List> warmCacheHit(WarmFactory warm) {
+        return ComplexSources.primitive(warm.factory);
+    }
+
+}
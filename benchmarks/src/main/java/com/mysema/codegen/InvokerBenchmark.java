@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.Types;
+
+/**
+ * InvokerBenchmark compares the generated Evaluator implementation with the reflective
+ * evaluator of the same eval method
+ *
+ * @author tiwe
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class InvokerBenchmark {
+
+    private Evaluator<Integer> direct;
+
+    private Evaluator<Integer> reflective;
+
+    private int a = 2, b = 5;
+
+    @Setup
+    public void setUp() {
+        AbstractEvaluatorFactory factory = new ECJEvaluatorFactory(getClass().getClassLoader());
+        Map<String, Object> constants = Collections.<String, Object> singletonMap("c", 3);
+        direct = factory.createEvaluator("return a * b + c;", Types.INT,
+                new String[]{"a", "b"}, new Type[]{Types.INT, Types.INT},
+                new Class<?>[]{int.class, int.class}, constants);
+        reflective = new MethodEvaluator<Integer>(factory.findEvalMethod(direct.getClass()),
+                constants, int.class);
+    }
+
+    @Benchmark
+    public Integer direct() {
+        return direct.evaluate(a, b);
+    }
+
+    @Benchmark
+    public Integer reflective() {
+        return reflective.evaluate(a, b);
+    }
+
+}
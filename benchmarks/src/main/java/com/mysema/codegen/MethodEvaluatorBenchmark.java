@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MethodEvaluatorBenchmark measures the throughput of the reflective evaluator for
+ * 0 to 5 arguments, with and without a constant
+ *
+ * @author tiwe
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class MethodEvaluatorBenchmark {
+
+    @Param({ "0", "1", "2", "3", "4", "5" })
+    public int arity;
+
+    @Param({ "false", "true" })
+    public boolean constant;
+
+    private Evaluator<Integer> evaluator;
+
+    private Object[] args;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        int paramCount = constant ? arity + 1 : arity;
+        Class<?>[] paramTypes = new Class<?>[paramCount];
+        for (int i = 0; i < paramCount; i++) {
+            paramTypes[i] = Integer.class;
+        }
+        Method method = getClass().getMethod("sum" + paramCount, paramTypes);
+        Map<String, Object> constants = constant
+                ? Collections.<String, Object> singletonMap("c", 10)
+                : Collections.<String, Object> emptyMap();
+        evaluator = new MethodEvaluator<Integer>(method, constants, Integer.class);
+        args = new Object[arity];
+        for (int i = 0; i < arity; i++) {
+            args[i] = i;
+        }
+    }
+
+    @Benchmark
+    public Integer evaluate() {
+        return evaluator.evaluate(args);
+    }
+
+    public static Integer sum0() {
+        return 0;
+    }
+
+    public static Integer sum1(Integer a) {
+        return a;
+    }
+
+    public static Integer sum2(Integer a, Integer b) {
+        return a + b;
+    }
+
+    public static Integer sum3(Integer a, Integer b, Integer c) {
+        return a + b + c;
+    }
+
+    public static Integer sum4(Integer a, Integer b, Integer c, Integer d) {
+        return a + b + c + d;
+    }
+
+    public static Integer sum5(Integer a, Integer b, Integer c, Integer d, Integer e) {
+        return a + b + c + d + e;
+    }
+
+    public static Integer sum6(Integer a, Integer b, Integer c, Integer d, Integer e,
+            Integer f) {
+        return a + b + c + d + e + f;
+    }
+
+}
@@ -15,16 +15,49 @@ package com.mysema.codegen;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Collection;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Primitives;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.mysema.codegen.model.ClassType;
 import com.mysema.codegen.model.Parameter;
 import com.mysema.codegen.model.SimpleType;
 import com.mysema.codegen.model.Type;
 import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.model.Types;
 import com.mysema.codegen.support.ClassUtils;
 
 /**
@@ -33,8 +66,75 @@ import com.mysema.codegen.support.ClassUtils;
  */
 public abstract class AbstractEvaluatorFactory implements EvaluatorFactory {
     
-    private final Map<String, Method> cache = new WeakHashMap<String, Method>();
-    
+    private static final String KEY_CLASS_NAME = "Q";
+
+    private static final int MAX_FIXED_ARITY = 3;
+
+    private static final int COMPILE_QUEUE_SIZE = 1000;
+
+    private static final long DEFAULT_FAILURE_CACHE_SIZE = 1000;
+
+    private static final long DEFAULT_FAILURE_CACHE_TTL_SECONDS = 60;
+
+    private static final Map<Type, Class<?>> PRIMITIVE_EVALUATORS = ImmutableMap.<Type, Class<?>>of(
+            Types.INT, IntEvaluator.class,
+            Types.LONG_P, LongEvaluator.class,
+            Types.DOUBLE_P, DoubleEvaluator.class,
+            Types.BOOLEAN_P, BooleanEvaluator.class);
+
+    private static final Type CLASS_TYPE = new ClassType(Class.class);
+
+    private static final Type EVALUATOR_TYPE = new ClassType(Evaluator.class);
+
+    private static final Weigher<String, CompiledClass> SIZE_WEIGHER = new Weigher<String, CompiledClass>() {
+        @Override
+        public int weigh(String key, CompiledClass value) {
+            return value.getSize();
+        }
+    };
+
+    private final RemovalListener<String, CompiledClass> generationReleaser = new RemovalListener<String, CompiledClass>() {
+        @Override
+        public void onRemoval(RemovalNotification<String, CompiledClass> notification) {
+            if (notification.wasEvicted()) {
+                listener.cacheEviction(notification.getValue().getId());
+            }
+            Generation generation = notification.getValue().getGeneration();
+            if (generation != null) {
+                fileManager.release(generation);
+            }
+        }
+    };
+
+    private long maximumCacheSize = -1;
+
+    private long maximumCacheWeight = -1;
+
+    private volatile Cache<String, CompiledClass> cache = createCache();
+
+    private long failureCacheSize = DEFAULT_FAILURE_CACHE_SIZE;
+
+    private long failureCacheTtlNanos = TimeUnit.SECONDS.toNanos(DEFAULT_FAILURE_CACHE_TTL_SECONDS);
+
+    // compile errors by class id
+    private volatile Cache<String, CodegenException> failures = createFailureCache();
+
+    private volatile ListeningExecutorService compileExecutor;
+
+    private volatile CompilerPool compilerPool;
+
+    private volatile boolean inlineConstants;
+
+    private volatile boolean canonicalize;
+
+    private volatile HiddenClassDefiner hiddenClassDefiner;
+
+    private volatile EvaluatorManifest manifest;
+
+    private volatile EvaluatorFactoryListener listener = new EvaluatorFactoryListenerAdapter();
+
+    protected MemFileManager fileManager;
+
     protected ClassLoader loader;
     
     /**
@@ -48,6 +148,26 @@ public abstract class AbstractEvaluatorFactory implements EvaluatorFactory {
      */
     protected abstract void compile(String source, ClassType projection, String[] names, Type[] types,
             String id, Map<String, Object> constants) throws IOException;
+
+    /**
+     * Compile the given specs. The default implementation compiles them one by one,
+     * subclasses should override it to use a single compiler invocation and to support
+     * specs without constant values.
+     * 
+     * @param specs specs by class name
+     * @throws IOException
+     */
+    protected void compile(Map<String, EvaluatorSpec> specs) throws IOException {
+        for (Map.Entry<String, EvaluatorSpec> entry : specs.entrySet()) {
+            EvaluatorSpec spec = entry.getValue();
+            if (spec.getConstants() == null) {
+                throw new CodegenException("Compilation of specs without constant values "
+                        + "is not supported by " + getClass().getName());
+            }
+            compile(spec.getSource(), spec.getProjection(), spec.getNames(), spec.getTypes(),
+                    entry.getKey(), spec.getConstants());
+        }
+    }
     
     /**
      * @param source
@@ -61,21 +181,77 @@ public abstract class AbstractEvaluatorFactory implements EvaluatorFactory {
      */
     protected String createSource(String source, ClassType projectionType, String[] names,
             Type[] types, String id, Map<String, Object> constants) throws IOException {
+        return createSource(id, new EvaluatorSpec(source, projectionType, names, types, null,
+                constants));
+    }
+
+    /**
+     * Create the source of the given spec
+     * 
+     * @param id class name
+     * @param spec spec with or without constant values
+     * @return
+     * @throws IOException
+     */
+    protected String createSource(String id, EvaluatorSpec spec) throws IOException {
+        long start = System.nanoTime();
+        String source = writeSource(id, spec);
+        listener.sourceGenerated(id, System.nanoTime() - start);
+        return source;
+    }
+
+    private String writeSource(String id, EvaluatorSpec spec) throws IOException {
+        Map<String, Object> constants = spec.getConstants();
+        if (constants == null) {
+            return writeSource(spec.getSource(), spec.getProjection(), spec.getNames(),
+                    spec.getTypes(), id, spec.getConstantTypes(),
+                    Collections.<String, Object> emptyMap());
+        }
+        Map<String, Object> boundConstants = getBoundConstants(constants);
+        Map<String, Type> constantTypes = new LinkedHashMap<String, Type>();
+        Map<String, Object> inlinedConstants = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : constants.entrySet()) {
+            if (boundConstants.containsKey(entry.getKey())) {
+                constantTypes.put(entry.getKey(), new ClassType(TypeCategory.SIMPLE,
+                        ClassUtils.normalize(entry.getValue().getClass())));
+            } else {
+                inlinedConstants.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return writeSource(spec.getSource(), spec.getProjection(), spec.getNames(),
+                spec.getTypes(), id, constantTypes, inlinedConstants);
+    }
+
+    private String writeSource(String source, ClassType projectionType, String[] names,
+            Type[] types, String id, Map<String, Type> constantTypes,
+            Map<String, Object> inlinedConstants) throws IOException {
         // create source
         StringWriter writer = new StringWriter();
         JavaWriter javaw = new JavaWriter(writer);
         SimpleType idType = new SimpleType(id, "", id);
-        javaw.beginClass(idType, null);
-        Parameter[] params = new Parameter[names.length + constants.size()];
+        Class<?> primitiveEvaluator = getPrimitiveEvaluator(projectionType);
+        javaw.beginClass(idType, null, primitiveEvaluator != null
+                ? new ClassType(primitiveEvaluator) : EVALUATOR_TYPE);
+        Parameter[] params = new Parameter[names.length + constantTypes.size()];
         for (int i = 0; i < names.length; i++) {
             params[i] = new Parameter(names[i], types[i]);
         }
         int i = names.length;
-        for (Map.Entry<String, Object> entry : constants.entrySet()) {
-            Type type = new ClassType(TypeCategory.SIMPLE, ClassUtils.normalize(entry.getValue().getClass()));
-            params[i++] = new Parameter(entry.getKey(), type);
+        for (Map.Entry<String, Type> entry : constantTypes.entrySet()) {
+            params[i++] = new Parameter(entry.getKey(), entry.getValue());
+        }
+
+        // inlined constants, which the compiler and JIT can fold
+        for (Map.Entry<String, Object> entry : inlinedConstants.entrySet()) {
+            Object value = entry.getValue();
+            Class<?> type = value instanceof Enum ? ((Enum<?>) value).getDeclaringClass()
+                    : Primitives.unwrap(value.getClass());
+            javaw.privateStaticFinal(new ClassType(type), entry.getKey(), getLiteral(value));
         }
 
+        // direct invoker, so that evaluation doesn't need reflection
+        writeInvoker(javaw, projectionType, params, names.length);
+
         javaw.beginStaticMethod(projectionType, "eval", params);
         javaw.append(source);
         javaw.end();
@@ -83,6 +259,187 @@ public abstract class AbstractEvaluatorFactory implements EvaluatorFactory {
         return writer.toString();
     }
 
+    private void writeInvoker(JavaWriter javaw, ClassType projectionType, Parameter[] params,
+            int argCount) throws IOException {
+        javaw.privateFinal(CLASS_TYPE, "_type");
+        for (int i = argCount; i < params.length; i++) {
+            javaw.privateFinal(params[i].getType(), "_c" + (i - argCount));
+        }
+
+        javaw.beginConstructor(new Parameter("_type", CLASS_TYPE),
+                new Parameter("_constants", Types.OBJECTS));
+        javaw.line("this._type = _type;");
+        for (int i = argCount; i < params.length; i++) {
+            String index = String.valueOf(i - argCount);
+            javaw.line("this._c", index, " = (", javaw.getRawName(params[i].getType()),
+                    ") _constants[", index, "];");
+        }
+        javaw.end();
+
+        Class<?> primitiveEvaluator = getPrimitiveEvaluator(projectionType);
+        if (primitiveEvaluator != null) {
+            // unboxed variants, evaluateInt etc
+            String methodName = "evaluate"
+                    + primitiveEvaluator.getSimpleName().replace("Evaluator", "");
+            writeEvaluate(javaw, projectionType, methodName, params, argCount);
+            Type boxedType = new ClassType(Primitives.wrap(projectionType.getJavaClass()));
+            writeEvaluate(javaw, boxedType, "evaluate", params, argCount);
+        } else {
+            writeEvaluate(javaw, Types.OBJECT, "evaluate", params, argCount);
+        }
+
+        javaw.beginPublicMethod(CLASS_TYPE, "getType");
+        javaw.line("return _type;");
+        javaw.end();
+    }
+
+    private void writeEvaluate(JavaWriter javaw, Type returnType, String methodName,
+            Parameter[] params, int argCount) throws IOException {
+        String[] args = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = "_args[" + i + "]";
+        }
+        javaw.beginPublicMethod(returnType, methodName, new Parameter("_args", Types.OBJECTS));
+        writeEval(javaw, params, args);
+        javaw.end();
+
+        // fixed arity variants, which don't need an argument array
+        for (int arity = 1; arity <= MAX_FIXED_ARITY; arity++) {
+            Parameter[] arityParams = new Parameter[arity];
+            for (int i = 0; i < arity; i++) {
+                arityParams[i] = new Parameter("_a" + i, Types.OBJECT);
+            }
+            javaw.beginPublicMethod(returnType, methodName, arityParams);
+            if (arity == argCount) {
+                String[] arityArgs = new String[arity];
+                for (int i = 0; i < arity; i++) {
+                    arityArgs[i] = arityParams[i].getName();
+                }
+                writeEval(javaw, params, arityArgs);
+            } else {
+                StringBuilder array = new StringBuilder("new Object[]{");
+                for (int i = 0; i < arity; i++) {
+                    array.append(i > 0 ? ", " : "").append(arityParams[i].getName());
+                }
+                javaw.line("return ", methodName, "(", array.toString(), "});");
+            }
+            javaw.end();
+        }
+    }
+
+    private void writeEval(JavaWriter javaw, Parameter[] params, String[] args)
+            throws IOException {
+        StringBuilder call = new StringBuilder("eval(");
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            if (i < args.length) {
+                call.append("(").append(getBoxedName(javaw, params[i].getType()));
+                call.append(") ").append(args[i]);
+            } else {
+                call.append("_c").append(i - args.length);
+            }
+        }
+        call.append(")");
+
+        javaw.line("try {");
+        javaw.line("    return ", call.toString(), ";");
+        javaw.line("} catch (RuntimeException e) {");
+        javaw.line("    throw new IllegalArgumentException(e);");
+        javaw.line("}");
+    }
+
+    /**
+     * @return the constants, which are passed to the eval method
+     */
+    private Map<String, Object> getBoundConstants(Map<String, Object> constants) {
+        if (!inlineConstants || constants.isEmpty()) {
+            return constants;
+        }
+        Map<String, Object> bound = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : constants.entrySet()) {
+            if (getLiteral(entry.getValue()) == null) {
+                bound.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * @return Java literal of the value or null, if the value can't be inlined
+     */
+    private static String getLiteral(Object value) {
+        if (value instanceof String) {
+            StringBuilder literal = new StringBuilder("\"");
+            for (char c : ((String) value).toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    literal.append('\\').append(c);
+                } else if (c < 0x20 || c == 0x7f) {
+                    // octal escapes, since unicode escapes are translated before lexing
+                    literal.append(String.format("\\%03o", (int) c));
+                } else {
+                    literal.append(c);
+                }
+            }
+            return literal.append('"').toString();
+        } else if (value instanceof Integer || value instanceof Boolean) {
+            return value.toString();
+        } else if (value instanceof Long) {
+            return value + "L";
+        } else if (value instanceof Short) {
+            return "(short) " + value;
+        } else if (value instanceof Byte) {
+            return "(byte) " + value;
+        } else if (value instanceof Character) {
+            return "(char) " + (int) ((Character) value).charValue();
+        } else if (value instanceof Double) {
+            Double d = (Double) value;
+            if (d.isNaN()) {
+                return "Double.NaN";
+            } else if (d.isInfinite()) {
+                return d > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+            } else {
+                return d + "d";
+            }
+        } else if (value instanceof Float) {
+            Float f = (Float) value;
+            if (f.isNaN()) {
+                return "Float.NaN";
+            } else if (f.isInfinite()) {
+                return f > 0 ? "Float.POSITIVE_INFINITY" : "Float.NEGATIVE_INFINITY";
+            } else {
+                return f + "f";
+            }
+        } else if (value instanceof Enum && isAccessible(((Enum<?>) value).getDeclaringClass())) {
+            Enum<?> enumValue = (Enum<?>) value;
+            return ClassUtils.getFullName(enumValue.getDeclaringClass()) + "." + enumValue.name();
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean isAccessible(Class<?> clazz) {
+        for (Class<?> c = clazz; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Class<?> getPrimitiveEvaluator(ClassType projectionType) {
+        return projectionType.isPrimitive() ? PRIMITIVE_EVALUATORS.get(projectionType) : null;
+    }
+
+    private static String getBoxedName(JavaWriter javaw, Type type) {
+        if (type.isPrimitive()) {
+            return ClassUtils.getName(Primitives.wrap(type.getJavaClass()));
+        } else {
+            return javaw.getRawName(type);
+        }
+    }
+
     
     @Override
     public <T> Evaluator<T> createEvaluator(String source, Class<? extends T> projectionType,
@@ -96,6 +453,203 @@ public abstract class AbstractEvaluatorFactory implements EvaluatorFactory {
     }
 
 
+    @Override
+    public List<Evaluator<?>> createEvaluators(List<EvaluatorSpec> specs) {
+        // compile the classes which are neither cached nor loaded in one go
+        if (canonicalize) {
+            List<EvaluatorSpec> canonicalSpecs = new ArrayList<EvaluatorSpec>(specs.size());
+            for (EvaluatorSpec spec : specs) {
+                canonicalSpecs.add(Canonicalizer.canonicalize(spec));
+            }
+            specs = canonicalSpecs;
+        }
+        Map<String, EvaluatorSpec> specsByKey = new LinkedHashMap<String, EvaluatorSpec>();
+        for (EvaluatorSpec spec : specs) {
+            specsByKey.put(toKey(spec), spec);
+        }
+        compileMissing(specsByKey, CompilerPool.Priority.INTERACTIVE);
+
+        List<Evaluator<?>> evaluators = new ArrayList<Evaluator<?>>(specs.size());
+        for (EvaluatorSpec spec : specs) {
+            evaluators.add(createEvaluator(spec.getSource(), spec.getProjection(),
+                    spec.getNames(), spec.getTypes(), spec.getClasses(), spec.getConstants()));
+        }
+        return evaluators;
+    }
+
+    /**
+     * Compile the specs, which are neither cached nor loaded, in one go. If the
+     * compilation fails, the specs are compiled separately on first use, so that only the
+     * invalid ones fail. With a compiler pool, the specs are split into a batch per
+     * worker, which are compiled in parallel.
+     */
+    private void compileMissing(Map<String, EvaluatorSpec> specsByKey,
+            CompilerPool.Priority priority) {
+        Map<String, EvaluatorSpec> missing = new LinkedHashMap<String, EvaluatorSpec>();
+        for (Map.Entry<String, EvaluatorSpec> entry : specsByKey.entrySet()) {
+            if (!cache.asMap().containsKey(entry.getKey())) {
+                String id = createId(entry.getValue());
+                if (!missing.containsKey(id) && !isLoadable(id)) {
+                    missing.put(id, entry.getValue());
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        CompilerPool pool = compilerPool;
+        if (pool == null || pool.isWorkerThread()) {
+            compileBatch(missing);
+            return;
+        }
+        List<Map.Entry<String, EvaluatorSpec>> entries =
+                new ArrayList<Map.Entry<String, EvaluatorSpec>>(missing.entrySet());
+        int batchSize = (entries.size() + pool.getThreads() - 1) / pool.getThreads();
+        List<ListenableFuture<Void>> results = new ArrayList<ListenableFuture<Void>>();
+        for (List<Map.Entry<String, EvaluatorSpec>> batch : Lists.partition(entries, batchSize)) {
+            final Map<String, EvaluatorSpec> specs = new LinkedHashMap<String, EvaluatorSpec>();
+            for (Map.Entry<String, EvaluatorSpec> entry : batch) {
+                specs.put(entry.getKey(), entry.getValue());
+            }
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    compileBatch(specs);
+                    return null;
+                }
+            }, priority));
+        }
+        try {
+            await(Futures.allAsList(results));
+        } catch (IOException e) {
+            throw new CodegenException(e);
+        }
+    }
+
+    private void compileBatch(Map<String, EvaluatorSpec> specs) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            compile(specs);
+            success = true;
+        } catch (CodegenException e) {
+            // compiled separately on first use
+        } catch (IOException e) {
+            throw new CodegenException(e);
+        } finally {
+            listener.compiled(specs.keySet(), System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Compile and load the specs of the given manifest on a pool of the given size, so
+     * that the evaluators are cached before they are first used. Specs, which can't be
+     * compiled anymore, are skipped.
+     * 
+     * @param manifest specs to precompile
+     * @param threads amount of compiler threads
+     * @return amount of specs, which have been loaded
+     */
+    public int precompile(EvaluatorManifest manifest, int threads) {
+        List<EvaluatorSpec> specs = manifest.getSpecs();
+        if (specs.isEmpty()) {
+            return 0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("evaluator-precompiler-%d").build());
+        try {
+            int batchSize = (specs.size() + threads - 1) / threads;
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (final List<EvaluatorSpec> batch : Lists.partition(specs, batchSize)) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return precompile(batch);
+                    }
+                }));
+            }
+            int loaded = 0;
+            for (Future<Integer> result : results) {
+                loaded += result.get();
+            }
+            return loaded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CodegenException(e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int precompile(List<EvaluatorSpec> specs) {
+        Map<String, EvaluatorSpec> specsByKey = new LinkedHashMap<String, EvaluatorSpec>();
+        for (EvaluatorSpec spec : specs) {
+            specsByKey.put(toKey(spec), spec);
+        }
+        compileMissing(specsByKey, CompilerPool.Priority.BACKGROUND);
+        int loaded = 0;
+        for (Map.Entry<String, EvaluatorSpec> entry : specsByKey.entrySet()) {
+            try {
+                getCompiledClass(entry.getKey(), entry.getValue());
+                loaded++;
+            } catch (RuntimeException e) {
+                // skip invalid specs
+            }
+        }
+        return loaded;
+    }
+
+    private boolean isLoadable(String id) {
+        try {
+            loader.loadClass(id);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public IntEvaluator createIntEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        return createPrimitiveEvaluator(IntEvaluator.class, source, int.class, names, classes,
+                constants);
+    }
+
+    @Override
+    public LongEvaluator createLongEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        return createPrimitiveEvaluator(LongEvaluator.class, source, long.class, names, classes,
+                constants);
+    }
+
+    @Override
+    public DoubleEvaluator createDoubleEvaluator(String source, String[] names,
+            Class<?>[] classes, Map<String, Object> constants) {
+        return createPrimitiveEvaluator(DoubleEvaluator.class, source, double.class, names,
+                classes, constants);
+    }
+
+    @Override
+    public BooleanEvaluator createBooleanEvaluator(String source, String[] names,
+            Class<?>[] classes, Map<String, Object> constants) {
+        return createPrimitiveEvaluator(BooleanEvaluator.class, source, boolean.class, names,
+                classes, constants);
+    }
+
+    private <E> E createPrimitiveEvaluator(Class<E> evaluatorType, String source,
+            Class<?> projectionType, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        Evaluator<?> evaluator = createEvaluator(source, projectionType, names, classes, constants);
+        if (evaluatorType.isInstance(evaluator)) {
+            return evaluatorType.cast(evaluator);
+        } else {
+            throw new CodegenException("Generated class doesn't implement " + evaluatorType.getName());
+        }
+    }
+
     /**
      * Create a new Evaluator instance
      * 
@@ -112,37 +666,499 @@ public abstract class AbstractEvaluatorFactory implements EvaluatorFactory {
      * @param constants
      * @return
      */
-    @SuppressWarnings("unchecked")
     @Override
-    public synchronized <T> Evaluator<T> createEvaluator(String source, ClassType projection, String[] names,
+    public <T> Evaluator<T> createEvaluator(String source, ClassType projection, String[] names,
             Type[] types, Class<?>[] classes, Map<String, Object> constants) {
+        if (canonicalize) {
+            EvaluatorSpec spec = Canonicalizer.canonicalize(new EvaluatorSpec(source, projection,
+                    names, types, classes, constants));
+            source = spec.getSource();
+            names = spec.getNames();
+            constants = spec.getConstants();
+        }
+        String key = toKey(source, projection, names, types, constants);
+        return createEvaluator(key, source, projection, names, types, constants);
+    }
+
+    @Override
+    public <T> ListenableFuture<Evaluator<T>> createEvaluatorAsync(String source,
+            Class<? extends T> projectionType, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        EvaluatorSpec spec = new EvaluatorSpec(source, projectionType, names, classes, constants);
+        return createEvaluatorAsync(source, spec.getProjection(), names, spec.getTypes(), classes,
+                constants);
+    }
+
+    @Override
+    public <T> ListenableFuture<Evaluator<T>> createEvaluatorAsync(String source,
+            final ClassType projection, String[] names, final Type[] types,
+            Class<?>[] classes, Map<String, Object> constants) {
+        if (canonicalize) {
+            EvaluatorSpec spec = Canonicalizer.canonicalize(new EvaluatorSpec(source, projection,
+                    names, types, classes, constants));
+            return createCanonicalEvaluatorAsync(spec.getSource(), projection, spec.getNames(),
+                    types, spec.getConstants());
+        } else {
+            return createCanonicalEvaluatorAsync(source, projection, names, types, constants);
+        }
+    }
+
+    private <T> ListenableFuture<Evaluator<T>> createCanonicalEvaluatorAsync(final String source,
+            final ClassType projection, final String[] names, final Type[] types,
+            final Map<String, Object> constants) {
+        final String key = toKey(source, projection, names, types, constants);
+        if (cache.asMap().containsKey(key)) {
+            Evaluator<T> evaluator = createEvaluator(key, source, projection, names, types,
+                    constants);
+            return Futures.immediateFuture(evaluator);
+        }
+        Callable<Evaluator<T>> creation = new Callable<Evaluator<T>>() {
+            @Override
+            public Evaluator<T> call() {
+                return createEvaluator(key, source, projection, names, types, constants);
+            }
+        };
         try {
-            final String id = toId(source, projection.getJavaClass(), types, constants.values());
-            Method method = cache.get(id);
-                        
-            if (method == null) {
-                Class<?> clazz;
-                try {
-                    clazz = loader.loadClass(id);
-                } catch (ClassNotFoundException e) {
-                    compile(source, projection, names, types, id, constants);
-                    // reload
-                    clazz = loader.loadClass(id);
+            // in-flight compilations are shared with synchronous callers via the cache,
+            // so the creation waits on the cache and must not occupy a compiler pool worker
+            return getCompileExecutor().submit(creation);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Evaluator<T> createEvaluator(String key, String source, ClassType projection,
+            String[] names, Type[] types, Map<String, Object> constants) {
+        CompiledClass compiled = getCompiledClass(key, new EvaluatorSpec(source, projection,
+                names, types, null, constants));
+        Map<String, Object> boundConstants = getBoundConstants(constants);
+        if (compiled.getInvoker() != null) {
+            return newInvoker(compiled.getInvoker(), projection.getJavaClass(), boundConstants);
+        } else {
+            return new MethodEvaluator<T>(compiled.getMethod(), boundConstants,
+                    (Class) projection.getJavaClass());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Evaluator<T> newInvoker(Constructor<?> invoker, Class<?> projectionType,
+            Map<String, Object> constants) {
+        try {
+            return (Evaluator<T>) invoker.newInstance(projectionType, constants.values().toArray());
+        } catch (InstantiationException e) {
+            throw new CodegenException(e);
+        } catch (IllegalAccessException e) {
+            throw new CodegenException(e);
+        } catch (InvocationTargetException e) {
+            throw new CodegenException(e.getCause());
+        }
+    }
+
+    private CompiledClass getCompiledClass(final String key, final EvaluatorSpec spec) {
+        final boolean[] missed = new boolean[1];
+        try {
+            // lookups are lock free, concurrent loads of the same id share one compilation
+            CompiledClass compiled = cache.get(key, new Callable<CompiledClass>() {
+                @Override
+                public CompiledClass call() throws IOException, ClassNotFoundException,
+                        NoSuchMethodException {
+                    String id = createId(spec);
+                    CodegenException failure = failures.getIfPresent(id);
+                    if (failure != null) {
+                        // invalid sources aren't compiled again until the failure expires
+                        throw new CodegenException(failure.getMessage(), failure);
+                    }
+                    missed[0] = true;
+                    listener.cacheMiss(id);
+                    CompiledClass compiled = load(id, spec);
+                    record(spec);
+                    return compiled;
                 }
-                method = findEvalMethod(clazz);
-                cache.put(id, method);
+            });
+            if (!missed[0]) {
+                listener.cacheHit();
             }
-            
-            return new MethodEvaluator<T>(method, constants, (Class) projection.getJavaClass());
+            return compiled;
+        } catch (ExecutionException e) {
+            throw new CodegenException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (ExecutionError e) {
+            throw (Error) e.getCause();
+        }
+    }
+
+    private void record(EvaluatorSpec spec) {
+        EvaluatorManifest m = manifest;
+        Map<String, Object> constants = spec.getConstants();
+        // inlined constants can't be recorded, since the manifest contains only the types
+        if (m != null && (constants == null
+                || getBoundConstants(constants).size() == constants.size())) {
+            m.add(new EvaluatorSpec(spec.getSource(), spec.getProjection(), spec.getNames(),
+                    spec.getTypes(), spec.getConstantTypes()));
+        }
+    }
+
+    private CompiledClass load(final String id, final EvaluatorSpec spec) throws IOException,
+            ClassNotFoundException, NoSuchMethodException {
+        HiddenClassDefiner definer = hiddenClassDefiner;
+        if (definer != null) {
+            CompiledClass compiled = loadHidden(definer, id, spec);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        Class<?> clazz;
+        long start = System.nanoTime();
+        try {
+            clazz = loader.loadClass(id);
         } catch (ClassNotFoundException e) {
+            compileAndNotify(id, spec, start);
+            // reload
+            start = System.nanoTime();
+            clazz = loader.loadClass(id);
+        }
+        long defineTime = System.nanoTime() - start;
+        Generation generation = fileManager != null ? fileManager.getGeneration(id) : null;
+        int size = generation != null ? generation.getSize(id) : 0;
+        listener.classDefined(id, defineTime, size);
+        Constructor<?> invoker = null;
+        if (Evaluator.class.isAssignableFrom(clazz)) {
+            invoker = clazz.getConstructor(Class.class, Object[].class);
+        }
+        CompiledClass compiled = new CompiledClass(id, findEvalMethod(clazz), invoker, size,
+                generation);
+        if (generation != null) {
+            // released again, when the class is evicted from the cache
+            fileManager.retain(generation, id);
+        }
+        return compiled;
+    }
+
+    /**
+     * Define the class as a hidden class. The class file is taken from its generation, so
+     * neither the lookup by name nor the eval method scan are needed.
+     * 
+     * @return compiled class or null, if the class has to be loaded by name
+     */
+    private CompiledClass loadHidden(HiddenClassDefiner definer, String id, EvaluatorSpec spec)
+            throws IOException, NoSuchMethodException {
+        Generation generation = fileManager.getGeneration(id);
+        if (generation == null) {
+            compileAndNotify(id, spec, System.nanoTime());
+            generation = fileManager.getGeneration(id);
+        }
+        // nested classes refer to the top level class by name
+        if (generation == null || generation.hasNestedClasses(id)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] bytes = generation.getClassFile(id);
+        if (bytes == null) {
+            return null;
+        }
+        Class<?> clazz = definer.define(bytes);
+        int size = generation.getSize(id);
+        listener.classDefined(id, System.nanoTime() - start, size);
+        Constructor<?> invoker = clazz.getConstructor(Class.class, Object[].class);
+        // released again, when the class is evicted from the cache
+        fileManager.retain(generation, id);
+        return new CompiledClass(id, null, invoker, size, generation);
+    }
+
+    private void compileAndNotify(String id, EvaluatorSpec spec, long start) throws IOException {
+        boolean success = false;
+        try {
+            compileSpec(id, spec);
+            success = true;
+        } catch (CodegenException e) {
+            // compile errors are reported without a cause
+            if (e.getCause() == null) {
+                failures.put(id, e);
+            }
+            throw e;
+        } finally {
+            listener.compiled(Collections.singleton(id), System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Compile the given spec, on the compiler pool, if one is set
+     */
+    private void compileSpec(final String id, final EvaluatorSpec spec) throws IOException {
+        CompilerPool pool = compilerPool;
+        if (pool != null && !pool.isWorkerThread()) {
+            await(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    compileSpec(id, spec);
+                    return null;
+                }
+            }, CompilerPool.Priority.INTERACTIVE));
+        } else if (spec.getConstants() != null) {
+            compile(spec.getSource(), spec.getProjection(), spec.getNames(), spec.getTypes(),
+                    id, spec.getConstants());
+        } else {
+            compile(Collections.singletonMap(id, spec));
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new CodegenException(e);
-        } catch (SecurityException e) {
-            throw new CodegenException(e);
-        } catch (IOException e) {
-            throw new CodegenException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw propagate(cause);
+            }
+        }
+    }
+
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof CodegenException) {
+            return (CodegenException) t;
+        } else if (t instanceof SecurityException) {
+            return new CodegenException(t);
+        } else if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else {
+            return new CodegenException(t);
         }
     }
 
+    /**
+     * Set whether primitive, String and public enum constants are inlined as static final
+     * fields of the generated classes instead of being passed as arguments. Inlined
+     * boxed values are declared with their primitive type. Since the values become part
+     * of the class, a class is compiled per distinct set of values.
+     * 
+     * @param inlineConstants
+     */
+    public void setInlineConstants(boolean inlineConstants) {
+        this.inlineConstants = inlineConstants;
+    }
+
+    /**
+     * Set whether sources are canonicalized before the class lookup. Comments and
+     * redundant whitespace are removed, arguments are renamed by position and constants
+     * are ordered by name, so that equivalent expressions share one compiled class.
+     * Compilation errors refer to the canonical source.
+     * 
+     * @param canonicalize
+     */
+    public void setCanonicalize(boolean canonicalize) {
+        this.canonicalize = canonicalize;
+    }
+
+    /**
+     * Set whether evaluator classes are defined as hidden classes instead of via the
+     * class loader of their generation. Hidden classes are not looked up by name and can
+     * be unloaded one by one as soon as they are unreachable. Requires Java 15 or later,
+     * on older runtimes the class loaders are used. Sources with nested classes are always
+     * loaded via the class loaders.
+     * 
+     * @param hiddenClasses
+     */
+    public void setHiddenClasses(boolean hiddenClasses) {
+        if (hiddenClasses && fileManager != null && HiddenClassDefiner.isSupported()) {
+            hiddenClassDefiner = new HiddenClassDefiner(loader);
+        } else {
+            hiddenClassDefiner = null;
+        }
+    }
+
+    /**
+     * @return true, if evaluator classes are defined as hidden classes
+     */
+    public boolean isHiddenClasses() {
+        return hiddenClassDefiner != null;
+    }
+
+    /**
+     * Set the manifest, which records the specs of the evaluator classes this factory
+     * loads. Specs with inlined constants are not recorded.
+     * 
+     * @param manifest manifest or null to stop recording
+     */
+    public void setManifest(EvaluatorManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Set the listener for compile, cache and class loading events
+     * 
+     * @param listener
+     */
+    public void setListener(EvaluatorFactoryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the pool, on which classes are compiled. The amount of workers limits the
+     * concurrent compilations, batches are split between the workers and interactive
+     * compilations are run before precompilation. By default classes are compiled on the
+     * calling thread. Asynchronous creation always uses the compile executor, only its
+     * compilation is run on the pool.
+     * 
+     * @param compilerPool pool or null to compile on the calling thread
+     */
+    public void setCompilerPool(CompilerPool compilerPool) {
+        this.compilerPool = compilerPool;
+    }
+
+    /**
+     * Set the executor for asynchronous evaluator creation. By default a daemon thread pool
+     * with one thread per processor and a bounded queue is used.
+     * 
+     * @param executor
+     */
+    public void setCompileExecutor(ExecutorService executor) {
+        this.compileExecutor = MoreExecutors.listeningDecorator(executor);
+    }
+
+    private ListeningExecutorService getCompileExecutor() {
+        if (compileExecutor == null) {
+            synchronized (this) {
+                if (compileExecutor == null) {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                            60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(COMPILE_QUEUE_SIZE),
+                            new ThreadFactoryBuilder().setDaemon(true)
+                                    .setNameFormat("evaluator-compiler-%d").build());
+                    executor.allowCoreThreadTimeOut(true);
+                    compileExecutor = MoreExecutors.listeningDecorator(executor);
+                }
+            }
+        }
+        return compileExecutor;
+    }
+
+    private Cache<String, CompiledClass> createCache() {
+        CacheBuilder<String, CompiledClass> builder = CacheBuilder.newBuilder().recordStats()
+                .removalListener(generationReleaser);
+        if (maximumCacheSize >= 0) {
+            builder.maximumSize(maximumCacheSize);
+        }
+        if (maximumCacheWeight >= 0) {
+            builder.maximumWeight(maximumCacheWeight).weigher(SIZE_WEIGHER);
+        }
+        return builder.build();
+    }
+
+    private Cache<String, CodegenException> createFailureCache() {
+        return CacheBuilder.newBuilder().maximumSize(failureCacheSize)
+                .expireAfterWrite(failureCacheTtlNanos, TimeUnit.NANOSECONDS)
+                .<String, CodegenException>build();
+    }
+
+    /**
+     * Set the bounds of the cache of compile errors. Sources, which failed to compile,
+     * aren't compiled again until their failure expires, the recorded error is thrown
+     * instead. Recorded failures are discarded. Defaults to 1000 failures for 60 seconds.
+     * 
+     * @param maximumSize maximum amount of recorded failures or 0 to disable the cache
+     * @param ttl time to live of a failure
+     * @param unit unit of the time to live
+     */
+    public synchronized void setFailureCache(long maximumSize, long ttl, TimeUnit unit) {
+        this.failureCacheSize = maximumSize;
+        this.failureCacheTtlNanos = unit.toNanos(ttl);
+        failures = createFailureCache();
+    }
+
+    private void resetCache() {
+        Cache<String, CompiledClass> old = cache;
+        cache = createCache();
+        // releases the generations of the discarded classes
+        old.invalidateAll();
+    }
+
+    /**
+     * Set the maximum amount of compiled classes to be cached. Least recently used
+     * classes are evicted first. Cached classes are discarded.
+     * 
+     * @param maximumCacheSize maximum entry count or -1 for no limit
+     * @throws IllegalArgumentException if a maximum cache weight is set
+     */
+    public synchronized void setMaximumCacheSize(long maximumCacheSize) {
+        if (maximumCacheSize >= 0 && maximumCacheWeight >= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum cache size can't be combined with a maximum cache weight");
+        }
+        this.maximumCacheSize = maximumCacheSize;
+        resetCache();
+    }
+
+    /**
+     * Set the maximum total bytecode size of the cached classes. Least recently used
+     * classes are evicted first. Can't be combined with a maximum cache size. Cached 
+     * classes are discarded.
+     * 
+     * @param maximumCacheWeight maximum total size in bytes or -1 for no limit
+     * @throws IllegalArgumentException if a maximum cache size is set
+     */
+    public synchronized void setMaximumCacheWeight(long maximumCacheWeight) {
+        if (maximumCacheWeight >= 0 && maximumCacheSize >= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum cache weight can't be combined with a maximum cache size");
+        }
+        this.maximumCacheWeight = maximumCacheWeight;
+        resetCache();
+    }
+
+    synchronized long getMaximumCacheSize() {
+        return maximumCacheSize;
+    }
+
+    synchronized long getMaximumCacheWeight() {
+        return maximumCacheWeight;
+    }
+
+    /**
+     * @return hit, miss and eviction counts of the compiled class cache
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Set the amount of compiled classes per class loader generation. A generation and its
+     * classes can be unloaded, once all its classes have been evicted from the cache.
+     * Defaults to a single generation, whose classes are never unloaded.
+     * 
+     * @param generationSize maximum classes per generation or -1 for a single generation
+     */
+    public void setGenerationSize(int generationSize) {
+        fileManager.setGenerationSize(generationSize);
+    }
+
+    /**
+     * Set how the bytecode of loaded classes is kept. It stays readable for compiler
+     * lookups, but can be trimmed or moved off heap.
+     * 
+     * @param byteStorage
+     */
+    public void setByteStorage(ByteStorage byteStorage) {
+        fileManager.setByteStorage(byteStorage);
+    }
+
+    /**
+     * @return total bytecode size of the classes of discarded generations, which
+     *         approximates the reclaimed metaspace
+     */
+    public long getReclaimedBytes() {
+        return fileManager != null ? fileManager.getReclaimedBytes() : 0;
+    }
+
     protected Method findEvalMethod(Class<?> clazz) {
         /*
          * Note 1:
@@ -163,18 +1179,74 @@ public abstract class AbstractEvaluatorFactory implements EvaluatorFactory {
         throw new IllegalArgumentException("Couldn't find eval method!");
     }
 
-    protected String toId(String source, Class<?> returnType, Type[] types, Collection<Object> constants) {
-        StringBuilder b = new StringBuilder(128);
-        b.append("Q");
-        b.append("_").append(source.hashCode());
-        b.append("_").append(returnType.getName().hashCode());
-        for (Type type : types) {
-            b.append("_").append(type.getFullName().hashCode());
+    private String toKey(EvaluatorSpec spec) {
+        if (spec.getConstants() != null) {
+            return toKey(spec.getSource(), spec.getProjection(), spec.getNames(),
+                    spec.getTypes(), spec.getConstants());
+        }
+        StringBuilder key = appendKeyHeader(spec.getProjection(), spec.getNames(),
+                spec.getTypes(), spec.getConstantTypes().size());
+        for (Map.Entry<String, Type> entry : spec.getConstantTypes().entrySet()) {
+            key.append(entry.getKey()).append(' ');
+            key.append(entry.getValue().getGenericName(false)).append('\n');
+        }
+        return key.append(spec.getSource()).toString();
+    }
+
+    /**
+     * Create the cache key of the given arguments. The key contains everything the
+     * generated source depends on, but is much cheaper to create, since the source is
+     * only generated on a cache miss.
+     */
+    private String toKey(String source, ClassType projection, String[] names, Type[] types,
+            Map<String, Object> constants) {
+        StringBuilder key = appendKeyHeader(projection, names, types, constants.size());
+        for (Map.Entry<String, Object> entry : constants.entrySet()) {
+            Object value = entry.getValue();
+            String literal = inlineConstants ? getLiteral(value) : null;
+            key.append(entry.getKey());
+            if (literal != null) {
+                key.append(" = ").append(literal);
+            } else {
+                key.append(' ').append(ClassUtils.getName(ClassUtils.normalize(value.getClass())));
+            }
+            key.append('\n');
         }
-        for (Object constant : constants) {
-            b.append("_").append(constant.getClass().getName().hashCode());
+        return key.append(source).toString();
+    }
+
+    private static StringBuilder appendKeyHeader(ClassType projection, String[] names,
+            Type[] types, int constantCount) {
+        // the counts delimit the lines, the source comes last
+        StringBuilder key = new StringBuilder(128);
+        key.append(projection.getGenericName(false)).append('\n');
+        key.append(names.length).append(' ').append(constantCount).append('\n');
+        for (int i = 0; i < names.length; i++) {
+            key.append(names[i]).append(' ').append(types[i].getGenericName(false)).append('\n');
+        }
+        return key;
+    }
+
+    /**
+     * Create the class name of the given spec from its generated source
+     */
+    private String createId(EvaluatorSpec spec) {
+        try {
+            // not reported as generated source, since it isn't compiled
+            return toId(writeSource(KEY_CLASS_NAME, spec));
+        } catch (IOException e) {
+            throw new CodegenException(e);
         }
-        return b.toString().replace('-', '0');
+    }
+
+    /**
+     * Create a content addressed class name for the given generated source
+     * 
+     * @param source generated source with a placeholder class name
+     * @return class name
+     */
+    protected String toId(String source) {
+        return "Q_" + Hashing.sha256().hashString(source, Charsets.UTF_8);
     }
     
 }
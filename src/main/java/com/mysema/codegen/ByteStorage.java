@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+/**
+ * ByteStorage defines how the bytecode of in memory classes is kept after the
+ * classes have been defined
+ *
+ * @author tiwe
+ *
+ */
+public enum ByteStorage {
+
+    /**
+     * keep the output buffer as written by the compiler
+     */
+    HEAP,
+
+    /**
+     * trim the bytecode to an exactly sized array
+     */
+    COMPACT,
+
+    /**
+     * move the bytecode to a direct buffer outside of the heap
+     */
+    OFF_HEAP
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.mysema.codegen.model.Type;
+
+/**
+ * Canonicalizer rewrites evaluator specs into a canonical form, so that specs which only
+ * differ in whitespace, comments, argument names or constant order share one class
+ *
+ * @author tiwe
+ *
+ */
+final class Canonicalizer {
+
+    private static final String ARG_PREFIX = "_a";
+
+    private static final String OPERATORS = "+-*/&|<>=!%^~?:";
+
+    private Canonicalizer() {}
+
+    /**
+     * Canonicalize the given spec. Arguments are renamed to positional names, unless the
+     * source uses the positional names already, and constants are sorted by name.
+     *
+     * @param spec
+     * @return canonical spec
+     */
+    static EvaluatorSpec canonicalize(EvaluatorSpec spec) {
+        String[] names = spec.getNames();
+        String[] canonicalNames = new String[names.length];
+        Map<String, String> renames = new HashMap<String, String>();
+        Map<String, Class<?>> argClasses = new HashMap<String, Class<?>>();
+        for (int i = 0; i < names.length; i++) {
+            canonicalNames[i] = ARG_PREFIX + i;
+            renames.put(names[i], canonicalNames[i]);
+            Class<?> argClass = getArgClass(spec, i);
+            if (argClass != null) {
+                argClasses.put(names[i], argClass);
+            }
+        }
+        String source = spec.getSource();
+        Map<String, Object> constants = spec.getConstants();
+        Set<String> constantNames = constants != null ? constants.keySet()
+                : spec.getConstantTypes().keySet();
+        String canonicalSource = null;
+        if (!containsAny(constantNames, canonicalNames)) {
+            canonicalSource = rewrite(source, renames, argClasses);
+        }
+        if (canonicalSource == null) {
+            // positional names are in use, only normalize the whitespace
+            canonicalNames = names;
+            canonicalSource = rewrite(source, new HashMap<String, String>(), argClasses);
+        }
+        if (constants == null) {
+            Map<String, Type> constantTypes = spec.getConstantTypes();
+            if (constantTypes.size() > 1) {
+                constantTypes = new TreeMap<String, Type>(constantTypes);
+            }
+            return new EvaluatorSpec(canonicalSource, spec.getProjection(), canonicalNames,
+                    spec.getTypes(), constantTypes);
+        }
+        if (constants.size() > 1) {
+            constants = new TreeMap<String, Object>(constants);
+        }
+        return new EvaluatorSpec(canonicalSource, spec.getProjection(), canonicalNames,
+                spec.getTypes(), spec.getClasses(), constants);
+    }
+
+    /**
+     * @return class of the given argument, from the declared type, if no classes are given,
+     *         or null, if the type has no Java class
+     */
+    private static Class<?> getArgClass(EvaluatorSpec spec, int i) {
+        Class<?>[] classes = spec.getClasses();
+        if (classes != null && i < classes.length) {
+            return classes[i];
+        }
+        try {
+            return spec.getTypes()[i].getJavaClass();
+        } catch (RuntimeException e) {
+            // type model without Java class
+            return null;
+        }
+    }
+
+    private static boolean containsAny(Set<String> constants, String[] names) {
+        for (String name : names) {
+            if (constants.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove comments, reduce whitespace to the required minimum and rename the given
+     * identifiers. Member accesses, method calls and qualified names, which aren't field
+     * accesses of the argument, are not renamed.
+     *
+     * @return rewritten source or null, if the source contains one of the new names or
+     *         a member access of an argument without known class
+     */
+    private static String rewrite(String source, Map<String, String> renames,
+            Map<String, Class<?>> argClasses) {
+        StringBuilder result = new StringBuilder(source.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        int length = source.length();
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? length : end;
+                pendingSpace = true;
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                pendingSpace = true;
+            } else {
+                int start = i;
+                if (c == '"' || c == '\'') {
+                    i = skipLiteral(source, i, c);
+                } else if (Character.isJavaIdentifierPart(c)) {
+                    // identifiers, keywords and numbers
+                    while (i < length && (Character.isJavaIdentifierPart(source.charAt(i))
+                            || (Character.isDigit(c) && source.charAt(i) == '.'))) {
+                        i++;
+                    }
+                } else {
+                    i++;
+                }
+                String token = source.substring(start, i);
+                if (pendingSpace && result.length() > 0 && needsSpace(
+                        result.charAt(result.length() - 1), token.charAt(0))) {
+                    result.append(' ');
+                }
+                pendingSpace = false;
+                if (Character.isJavaIdentifierStart(c)) {
+                    if (renames.containsValue(token) && !renames.containsKey(token)) {
+                        return null;
+                    } else if (renames.containsKey(token) && !isMember(result)
+                            && !isCall(source, i)) {
+                        String member = getMemberName(source, i);
+                        Class<?> argClass = argClasses.get(token);
+                        if (member != null && argClass == null) {
+                            // a field access can't be told apart from a qualified name
+                            return null;
+                        } else if (member == null || !isQualifiedName(member, argClass)) {
+                            token = renames.get(token);
+                        }
+                    }
+                }
+                result.append(token);
+            }
+        }
+        return result.toString();
+    }
+
+    private static int skipLiteral(String source, int start, char quote) {
+        int i = start + 1;
+        while (i < source.length()) {
+            char c = source.charAt(i++);
+            if (c == '\\') {
+                i++;
+            } else if (c == quote) {
+                break;
+            }
+        }
+        return Math.min(i, source.length());
+    }
+
+    private static boolean needsSpace(char before, char after) {
+        if (Character.isJavaIdentifierPart(before) && Character.isJavaIdentifierPart(after)) {
+            return true;
+        } else {
+            // keep a - -b, a / *b etc apart
+            return OPERATORS.indexOf(before) > -1 && OPERATORS.indexOf(after) > -1;
+        }
+    }
+
+    private static boolean isMember(StringBuilder result) {
+        return result.length() > 0 && result.charAt(result.length() - 1) == '.';
+    }
+
+    private static boolean isCall(String source, int i) {
+        i = skipWhitespace(source, i);
+        return i < source.length() && source.charAt(i) == '(';
+    }
+
+    /**
+     * @return name of the member, which is accessed at the given position without a call,
+     *         or null
+     */
+    private static String getMemberName(String source, int i) {
+        i = skipWhitespace(source, i);
+        if (i >= source.length() || source.charAt(i) != '.') {
+            return null;
+        }
+        int start = skipWhitespace(source, i + 1);
+        int end = start;
+        while (end < source.length() && Character.isJavaIdentifierPart(source.charAt(end))) {
+            end++;
+        }
+        if (start == end || isCall(source, end)) {
+            return null;
+        }
+        return source.substring(start, end);
+    }
+
+    /**
+     * @return true, if the member of the argument starts a qualified name, since it can't
+     *         be a field access of the argument, e.g. util of java.util.List for an
+     *         argument java
+     */
+    private static boolean isQualifiedName(String member, Class<?> argClass) {
+        if (argClass.isArray()) {
+            return !member.equals("length");
+        }
+        try {
+            argClass.getField(member);
+            return false;
+        } catch (NoSuchFieldException e) {
+            return true;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    private static int skipWhitespace(String source, int i) {
+        while (i < source.length() && Character.isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ClassFileWriter writes class files of the Java 5 format (version 49.0), which the
+ * verifier checks by type inference, so that no stack map frames need to be computed.
+ * Only what {@link DirectEvaluatorFactory} emits is supported: no fields, no exception
+ * handlers and forward branches within 32k of code.
+ *
+ * @author tiwe
+ *
+ */
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001, ACC_PROTECTED = 0x0004, ACC_STATIC = 0x0008,
+            ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    // opcodes
+    static final int ACONST_NULL = 0x01, LCONST_0 = 0x09, FCONST_0 = 0x0b, DCONST_0 = 0x0e,
+            IADD = 0x60, LADD = 0x61, FADD = 0x62, DADD = 0x63,
+            ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IREM = 0x70, INEG = 0x74, IXOR = 0x82,
+            I2L = 0x85, I2F = 0x86, I2D = 0x87, L2F = 0x89, L2D = 0x8a, F2D = 0x8d,
+            LCMP = 0x94, FCMPL = 0x95, FCMPG = 0x96, DCMPL = 0x97, DCMPG = 0x98,
+            IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e,
+            IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2,
+            IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, IF_ACMPEQ = 0xa5, IF_ACMPNE = 0xa6,
+            GOTO = 0xa7, IRETURN = 0xac, LRETURN = 0xad, FRETURN = 0xae, DRETURN = 0xaf,
+            ARETURN = 0xb0, RETURN = 0xb1, GETFIELD = 0xb4, INVOKEVIRTUAL = 0xb6,
+            INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9,
+            ARRAYLENGTH = 0xbe, CHECKCAST = 0xc0, AALOAD = 0x32;
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1, CONSTANT_INTEGER = 3, CONSTANT_FLOAT = 4,
+            CONSTANT_LONG = 5, CONSTANT_DOUBLE = 6, CONSTANT_CLASS = 7, CONSTANT_STRING = 8,
+            CONSTANT_FIELDREF = 9, CONSTANT_METHODREF = 10, CONSTANT_INTERFACE_METHODREF = 11,
+            CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+
+    private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+    private int poolSize = 1;
+
+    private final int access, thisClass, superClass, signatureName, signature;
+
+    private final int[] interfaces;
+
+    private final List<Code> methods = new ArrayList<Code>();
+
+    /**
+     * @param access access flags
+     * @param name internal name
+     * @param superName internal name of the superclass
+     * @param signature generic signature or null
+     * @param interfaceNames internal names of the interfaces
+     */
+    ClassFileWriter(int access, String name, String superName, String signature,
+            String... interfaceNames) {
+        this.access = access;
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+        this.signatureName = signature != null ? utf8("Signature") : 0;
+        this.signature = signature != null ? utf8(signature) : 0;
+    }
+
+    /**
+     * Start a new method
+     *
+     * @param access access flags
+     * @param name method name
+     * @param descriptor method descriptor
+     * @param maxLocals local variable slots including this and the parameters
+     * @return code of the method
+     */
+    Code method(int access, String name, String descriptor, int maxLocals) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), maxLocals);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        int codeName = utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolSize);
+            pool.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) {
+                out.writeShort(i);
+            }
+            // fields
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                method.write(out, codeName);
+            }
+            if (signature != 0) {
+                out.writeShort(1);
+                out.writeShort(signatureName);
+                out.writeInt(2);
+                out.writeShort(signature);
+            } else {
+                out.writeShort(0);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // not thrown by in memory streams
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int constant(String key, int tag, Object... values) {
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            index = poolSize;
+            try {
+                poolOut.writeByte(tag);
+                for (Object value : values) {
+                    if (value instanceof String) {
+                        poolOut.writeUTF((String) value);
+                    } else if (value instanceof Short) {
+                        poolOut.writeShort((Short) value);
+                    } else if (value instanceof Integer) {
+                        poolOut.writeInt((Integer) value);
+                    } else if (value instanceof Float) {
+                        poolOut.writeFloat((Float) value);
+                    } else if (value instanceof Long) {
+                        poolOut.writeLong((Long) value);
+                    } else {
+                        poolOut.writeDouble((Double) value);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            // long and double constants take two entries
+            poolSize += tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE ? 2 : 1;
+            if (poolSize > 0xFFFF) {
+                throw new CodegenException("Constant pool overflow");
+            }
+            poolIndex.put(key, index);
+        }
+        return index;
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, CONSTANT_UTF8, value);
+    }
+
+    private int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, CONSTANT_CLASS, (short) name);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE, (short) n,
+                (short) d);
+    }
+
+    /**
+     * @param descriptor field or method descriptor
+     * @return stack slots of the value or the return value
+     */
+    static int getSize(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return c == 'V' ? 0 : (c == 'J' || c == 'D' ? 2 : 1);
+    }
+
+    private static int getArgumentsSize(String methodDescriptor) {
+        int size = 0;
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            char c = methodDescriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                size += 2;
+            } else {
+                // arrays are references
+                while (methodDescriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (methodDescriptor.charAt(i) == 'L') {
+                    i = methodDescriptor.indexOf(';', i);
+                }
+                size++;
+            }
+            i++;
+        }
+        return size;
+    }
+
+    /**
+     * Label of a code position
+     */
+    static final class Label {
+
+        private int position = -1;
+
+        private int stack = -1;
+
+        // positions of the branch instructions
+        private final List<Integer> branches = new ArrayList<Integer>();
+
+    }
+
+    /**
+     * Code of a method
+     */
+    final class Code {
+
+        private final int access, name, descriptor, maxLocals;
+
+        private byte[] code = new byte[64];
+
+        private int length, stack, maxStack;
+
+        private Code(int access, int name, int descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        private void u1(int value) {
+            if (length == code.length) {
+                byte[] larger = new byte[code.length * 2];
+                System.arraycopy(code, 0, larger, 0, length);
+                code = larger;
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void push(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        /**
+         * Emit an instruction without operands
+         *
+         * @param opcode
+         * @param stackDelta change of the stack size in slots
+         */
+        void op(int opcode, int stackDelta) {
+            u1(opcode);
+            push(stackDelta);
+        }
+
+        void aload(int index) {
+            if (index <= 3) {
+                u1(0x2a + index);
+            } else {
+                u1(0x19);
+                u1(index);
+            }
+            push(1);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(0x10);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(0x11);
+                u2(value);
+            } else {
+                ldc(constant("I" + value, CONSTANT_INTEGER, value));
+                return;
+            }
+            push(1);
+        }
+
+        void lconst(long value) {
+            if (value == 0 || value == 1) {
+                op(LCONST_0 + (int) value, 2);
+            } else {
+                ldc2(constant("J" + value, CONSTANT_LONG, value));
+            }
+        }
+
+        void fconst(float value) {
+            if (Float.floatToRawIntBits(value) == 0 || value == 1.0f || value == 2.0f) {
+                op(FCONST_0 + (int) value, 1);
+            } else {
+                ldc(constant("F" + Float.floatToRawIntBits(value), CONSTANT_FLOAT, value));
+            }
+        }
+
+        void dconst(double value) {
+            if (Double.doubleToRawLongBits(value) == 0 || value == 1.0) {
+                op(DCONST_0 + (int) value, 2);
+            } else {
+                ldc2(constant("D" + Double.doubleToRawLongBits(value), CONSTANT_DOUBLE, value));
+            }
+        }
+
+        void sconst(String value) {
+            int utf8 = utf8(value);
+            ldc(constant("S" + value, CONSTANT_STRING, (short) utf8));
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xFF) {
+                u1(0x12);
+                u1(index);
+            } else {
+                u1(0x13);
+                u2(index);
+            }
+            push(1);
+        }
+
+        private void ldc2(int index) {
+            u1(0x14);
+            u2(index);
+            push(2);
+        }
+
+        void checkcast(String internalName) {
+            u1(CHECKCAST);
+            u2(classRef(internalName));
+        }
+
+        void getfield(String owner, String fieldName, String fieldDescriptor) {
+            int c = classRef(owner);
+            int nt = nameAndType(fieldName, fieldDescriptor);
+            u1(GETFIELD);
+            u2(constant("f" + owner + "." + fieldName + ":" + fieldDescriptor,
+                    CONSTANT_FIELDREF, (short) c, (short) nt));
+            push(getSize(fieldDescriptor) - 1);
+        }
+
+        void invoke(int opcode, String owner, String methodName, String methodDescriptor) {
+            boolean isInterface = opcode == INVOKEINTERFACE;
+            int c = classRef(owner);
+            int nt = nameAndType(methodName, methodDescriptor);
+            u1(opcode);
+            u2(constant((isInterface ? "i" : "m") + owner + "." + methodName + ":"
+                    + methodDescriptor, isInterface ? CONSTANT_INTERFACE_METHODREF
+                    : CONSTANT_METHODREF, (short) c, (short) nt));
+            int argumentsSize = getArgumentsSize(methodDescriptor);
+            if (isInterface) {
+                u1(argumentsSize + 1);
+                u1(0);
+            }
+            push(getSize(methodDescriptor) - argumentsSize - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        /**
+         * Emit a forward branch
+         *
+         * @param opcode branch opcode
+         * @param label target, which is marked later
+         */
+        void jump(int opcode, Label label) {
+            if (opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE) {
+                push(-2);
+            } else if (opcode != GOTO) {
+                push(-1);
+            }
+            label.stack = stack;
+            label.branches.add(length);
+            u1(opcode);
+            u2(0);
+        }
+
+        void mark(Label label) {
+            label.position = length;
+            for (int branch : label.branches) {
+                int offset = length - branch;
+                if (offset > Short.MAX_VALUE) {
+                    throw new CodegenException("Branch offset too large");
+                }
+                code[branch + 1] = (byte) (offset >> 8);
+                code[branch + 2] = (byte) offset;
+            }
+            if (label.stack >= 0) {
+                stack = label.stack;
+            }
+        }
+
+        private void write(DataOutputStream out, int codeName) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            // exception table and attributes
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+    }
+
+}
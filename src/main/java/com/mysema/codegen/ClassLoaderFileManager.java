@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * ClassLoaderFileManager serves the class path of the compiler from a ClassLoader, so
+ * that no file system class path is needed. The class files are read via
+ * {@link ClassLoader#getResourceAsStream(String)}, the package listings come from an
+ * index of the jar files and directories of the loader.
+ *
+ * <p>The jar files are found via their manifests and indexed once, directories are
+ * listed per package. Listings are cached, so the class path shouldn't change. Classes
+ * of the Java installation are left to the platform class path of the delegate.</p>
+ *
+ * @author tiwe
+ *
+ */
+public class ClassLoaderFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+    private static final String CLASS_SUFFIX = Kind.CLASS.extension;
+
+    /**
+     * Class file, which is read via the class loader
+     */
+    private static final class ClassLoaderFileObject extends SimpleJavaFileObject {
+
+        private final ClassLoader classLoader;
+
+        private final String binaryName;
+
+        private final String resourceName;
+
+        ClassLoaderFileObject(ClassLoader classLoader, String binaryName, String resourceName) {
+            super(URI.create("classloader:/" + resourceName), Kind.CLASS);
+            this.classLoader = classLoader;
+            this.binaryName = binaryName;
+            this.resourceName = resourceName;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            InputStream in = classLoader.getResourceAsStream(resourceName);
+            if (in == null) {
+                throw new FileNotFoundException(resourceName);
+            }
+            return in;
+        }
+
+        @Override
+        public boolean isNameCompatible(String simpleName, Kind kind) {
+            return kind == Kind.CLASS
+                    && binaryName.substring(binaryName.lastIndexOf('.') + 1).equals(simpleName);
+        }
+
+    }
+
+    private final ClassLoader classLoader;
+
+    private final String javaHome;
+
+    // class names by package
+    private final Map<String, List<String>> packages = new ConcurrentHashMap<String, List<String>>();
+
+    // indexed jar files
+    private final Set<String> jars = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // class names of the indexed jar files by package
+    private final Map<String, Set<String>> jarPackages = new ConcurrentHashMap<String, Set<String>>();
+
+    private final List<File> directories = new ArrayList<File>();
+
+    private volatile boolean initialized;
+
+    /**
+     * @param classLoader class loader of the class path
+     * @param fileManager file manager for the other locations
+     */
+    public ClassLoaderFileManager(ClassLoader classLoader, JavaFileManager fileManager) {
+        super(fileManager);
+        this.classLoader = classLoader;
+        this.javaHome = new File(System.getProperty("java.home")).toURI().toString();
+    }
+
+    @Override
+    public boolean hasLocation(Location location) {
+        return location == StandardLocation.CLASS_PATH || super.hasLocation(location);
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<Kind> kinds,
+            boolean recurse) throws IOException {
+        if (location != StandardLocation.CLASS_PATH) {
+            return super.list(location, packageName, kinds, recurse);
+        } else if (!kinds.contains(Kind.CLASS)) {
+            return Collections.emptyList();
+        }
+        initialize();
+        List<JavaFileObject> files = new ArrayList<JavaFileObject>();
+        if (recurse) {
+            for (String pkg : getPackages(packageName)) {
+                addClasses(files, pkg);
+            }
+        } else {
+            addClasses(files, packageName);
+        }
+        return files;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof ClassLoaderFileObject) {
+            return ((ClassLoaderFileObject) file).binaryName;
+        } else {
+            return super.inferBinaryName(location, file);
+        }
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof ClassLoaderFileObject || b instanceof ClassLoaderFileObject) {
+            return a.equals(b);
+        } else {
+            return super.isSameFile(a, b);
+        }
+    }
+
+    private void addClasses(List<JavaFileObject> files, String packageName) throws IOException {
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        for (String className : getClasses(packageName)) {
+            String binaryName = prefix + className;
+            files.add(new ClassLoaderFileObject(classLoader, binaryName,
+                    binaryName.replace('.', '/') + CLASS_SUFFIX));
+        }
+    }
+
+    /**
+     * @return simple binary names of the classes of the package
+     */
+    private List<String> getClasses(String packageName) throws IOException {
+        List<String> classes = packages.get(packageName);
+        if (classes == null) {
+            String path = packageName.replace('.', '/');
+            // jar files without manifest are found via the package, if they have directory entries
+            Enumeration<URL> urls = classLoader.getResources(path.isEmpty() ? path : path + "/");
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                if (url.getProtocol().equals("jar")) {
+                    indexJar(url);
+                }
+            }
+            Set<String> names = new LinkedHashSet<String>();
+            Set<String> jarClasses = jarPackages.get(packageName);
+            if (jarClasses != null) {
+                synchronized (jarClasses) {
+                    names.addAll(jarClasses);
+                }
+            }
+            for (File directory : directories) {
+                String[] files = new File(directory, path).list();
+                if (files != null) {
+                    for (String file : files) {
+                        if (file.endsWith(CLASS_SUFFIX)) {
+                            names.add(file.substring(0, file.length() - CLASS_SUFFIX.length()));
+                        }
+                    }
+                }
+            }
+            classes = new ArrayList<String>(names);
+            packages.put(packageName, classes);
+        }
+        return classes;
+    }
+
+    /**
+     * @return the package and its subpackages
+     */
+    private Set<String> getPackages(String packageName) {
+        Set<String> result = new LinkedHashSet<String>();
+        result.add(packageName);
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        for (String pkg : jarPackages.keySet()) {
+            if (pkg.startsWith(prefix)) {
+                result.add(pkg);
+            }
+        }
+        String path = packageName.replace('.', '/');
+        for (File directory : directories) {
+            addPackages(result, new File(directory, path), packageName);
+        }
+        return result;
+    }
+
+    private static void addPackages(Set<String> packages, File directory, String packageName) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    String pkg = packageName.isEmpty() ? file.getName()
+                            : packageName + "." + file.getName();
+                    packages.add(pkg);
+                    addPackages(packages, file, pkg);
+                }
+            }
+        }
+    }
+
+    private synchronized void initialize() throws IOException {
+        if (initialized) {
+            return;
+        }
+        Enumeration<URL> manifests = classLoader.getResources(JarFile.MANIFEST_NAME);
+        while (manifests.hasMoreElements()) {
+            URL url = manifests.nextElement();
+            if (url.getProtocol().equals("jar")) {
+                indexJar(url);
+            }
+        }
+        Enumeration<URL> roots = classLoader.getResources("");
+        while (roots.hasMoreElements()) {
+            URL url = roots.nextElement();
+            if (url.getProtocol().equals("file")) {
+                try {
+                    directories.add(new File(url.toURI()));
+                } catch (URISyntaxException e) {
+                    directories.add(new File(url.getPath()));
+                }
+            }
+        }
+        initialized = true;
+    }
+
+    /**
+     * Index the classes of the jar file of the given jar URL, if not yet done
+     */
+    private void indexJar(URL url) throws IOException {
+        String spec = url.toExternalForm();
+        String jar = spec.substring(0, spec.lastIndexOf("!/"));
+        if (jars.contains(jar) || jar.startsWith("jar:" + javaHome)) {
+            return;
+        }
+        synchronized (jars) {
+            if (!jars.add(jar)) {
+                return;
+            }
+            URLConnection connection = url.openConnection();
+            if (!(connection instanceof JarURLConnection)) {
+                return;
+            }
+            JarFile jarFile = ((JarURLConnection) connection).getJarFile();
+            try {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    // versioned and module descriptors are skipped
+                    if (name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/")
+                            && !name.endsWith("module-info.class")) {
+                        int index = name.lastIndexOf('/');
+                        String packageName = index > -1
+                                ? name.substring(0, index).replace('/', '.') : "";
+                        Set<String> classes = jarPackages.get(packageName);
+                        if (classes == null) {
+                            classes = Collections.synchronizedSet(new LinkedHashSet<String>());
+                            jarPackages.put(packageName, classes);
+                        }
+                        classes.add(name.substring(index + 1,
+                                name.length() - CLASS_SUFFIX.length()));
+                    }
+                }
+            } finally {
+                // cached jar files are shared with the class loader
+                if (!connection.getUseCaches()) {
+                    jarFile.close();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * CompiledClass is the cached form of a compiled evaluator class
+ * 
+ * @author tiwe
+ *
+ */
+final class CompiledClass {
+
+    private final String id;
+
+    private final Method method;
+
+    private final Constructor<?> invoker;
+
+    private final int size;
+
+    private final Generation generation;
+
+    CompiledClass(String id, Method method, Constructor<?> invoker, int size,
+            Generation generation) {
+        this.id = id;
+        this.method = method;
+        this.invoker = invoker;
+        this.size = size;
+        this.generation = generation;
+    }
+
+    /**
+     * @return class name
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return eval method or null, if the class has been defined as a hidden class
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return constructor of the direct Evaluator implementation or null, if the class
+     *         doesn't provide one
+     */
+    public Constructor<?> getInvoker() {
+        return invoker;
+    }
+
+    /**
+     * @return size of the class files in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return generation of the class or null, if the class isn't managed in generations
+     */
+    public Generation getGeneration() {
+        return generation;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * CompilerPool runs compilations on a fixed amount of worker threads, so that the CPU
+ * use of compilations stays predictable. Waiting compilations are queued by priority,
+ * so that interactive requests are run before background work such as precompilation.
+ *
+ * @author tiwe
+ *
+ */
+public final class CompilerPool {
+
+    /**
+     * Priority of a compilation, compilations of the same priority are run in order
+     */
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private final ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final int threads;
+
+    private final int queueSize;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Create a new pool
+     *
+     * @param threads amount of workers, which is the maximum of concurrent compilations
+     * @param queueSize maximum amount of waiting compilations
+     */
+    public CompilerPool(int threads, int queueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        this.queueSize = queueSize;
+        ThreadFactory factory = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("evaluator-compiler-pool-%d").build();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), factory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submit the given task
+     *
+     * @param task
+     * @param priority
+     * @return result of the task
+     * @throws RejectedExecutionException if the queue is full or the pool is shut down
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> task, Priority priority) {
+        if (queued.incrementAndGet() > queueSize) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException("Compile queue is full");
+        }
+        PrioritizedTask<T> prioritized = new PrioritizedTask<T>(task, priority,
+                sequence.getAndIncrement());
+        try {
+            executor.execute(prioritized);
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+        return prioritized.result;
+    }
+
+    /**
+     * @return true, if the current thread is a worker of this pool
+     */
+    public boolean isWorkerThread() {
+        return worker.get() != null;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return amount of waiting compilations
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Shut the pool down, queued compilations are still run
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private final class PrioritizedTask<T> implements Runnable, Comparable<PrioritizedTask<?>> {
+
+        private final Callable<T> task;
+
+        private final Priority priority;
+
+        private final long sequence;
+
+        private final SettableFuture<T> result = SettableFuture.create();
+
+        PrioritizedTask(Callable<T> task, Priority priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            if (result.isCancelled()) {
+                return;
+            }
+            worker.set(Boolean.TRUE);
+            try {
+                result.set(task.call());
+            } catch (Throwable t) {
+                result.setException(t);
+            } finally {
+                worker.remove();
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> o) {
+            if (priority != o.priority) {
+                return priority.compareTo(o.priority);
+            } else {
+                return sequence < o.sequence ? -1 : (sequence > o.sequence ? 1 : 0);
+            }
+        }
+
+    }
+
+}
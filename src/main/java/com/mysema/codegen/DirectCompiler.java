@@ -0,0 +1,1055 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import static com.mysema.codegen.ClassFileWriter.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Primitives;
+import com.mysema.codegen.ClassFileWriter.Code;
+import com.mysema.codegen.ClassFileWriter.Label;
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.support.Descriptors;
+
+/**
+ * DirectCompiler compiles evaluator sources of the form <code>return expression;</code>
+ * directly to class files, if the expression only uses
+ *
+ * <ul>
+ * <li>the arguments and constants</li>
+ * <li>int, long, float, double, char, boolean, String and null literals</li>
+ * <li>public fields, array lengths and public instance methods of public classes</li>
+ * <li>the arithmetic operators <code>+ - * / %</code> on numbers</li>
+ * <li>comparisons and the boolean operators <code>! &amp;&amp; ||</code></li>
+ * </ul>
+ *
+ * <p>Other sources are left to the source compilers.</p>
+ *
+ * @author tiwe
+ *
+ */
+final class DirectCompiler {
+
+    static final int MAX_ARITY = 3;
+
+    private static final String DIRECT_EVALUATOR = Descriptors.getInternalName(DirectEvaluator.class);
+
+    private static final String EVAL_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)";
+
+    private static final Map<Class<?>, Class<?>> VARIANTS = ImmutableMap.<Class<?>, Class<?>>of(
+            int.class, DirectEvaluator.OfInt.class,
+            long.class, DirectEvaluator.OfLong.class,
+            double.class, DirectEvaluator.OfDouble.class,
+            boolean.class, DirectEvaluator.OfBoolean.class);
+
+    // widening primitive conversions
+    private static final Map<Class<?>, ImmutableSet<Class<?>>> WIDENING = ImmutableMap.<Class<?>, ImmutableSet<Class<?>>>builder()
+            .put(byte.class, ImmutableSet.<Class<?>>of(short.class, int.class, long.class, float.class, double.class))
+            .put(short.class, ImmutableSet.<Class<?>>of(int.class, long.class, float.class, double.class))
+            .put(char.class, ImmutableSet.<Class<?>>of(int.class, long.class, float.class, double.class))
+            .put(int.class, ImmutableSet.<Class<?>>of(long.class, float.class, double.class))
+            .put(long.class, ImmutableSet.<Class<?>>of(float.class, double.class))
+            .put(float.class, ImmutableSet.<Class<?>>of(double.class))
+            .build();
+
+    private static final Map<String, Integer> COMPARISONS = ImmutableMap.<String, Integer>builder()
+            .put("==", 0).put("!=", 1).put("<", 2).put(">=", 3).put(">", 4).put("<=", 5).build();
+
+    private static final Map<String, Integer> ARITHMETIC = ImmutableMap.of(
+            "+", IADD, "-", ISUB, "*", IMUL, "/", IDIV, "%", IREM);
+
+    /**
+     * Thrown for sources outside of the supported subset
+     */
+    @SuppressWarnings("serial")
+    static final class UnsupportedSourceException extends RuntimeException {
+
+        UnsupportedSourceException(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+    }
+
+    private final ClassLoader classLoader;
+
+    private final String[] names;
+
+    private final Class<?>[] argTypes;
+
+    private final String[] constantNames;
+
+    private final Class<?>[] constantTypes;
+
+    private String source;
+
+    private int pos;
+
+    private String token;
+
+    private Object literal;
+
+    private boolean identifier;
+
+    /**
+     * @param classLoader class loader of the emitted classes
+     * @param names argument names
+     * @param argTypes argument types
+     * @param constantNames constant names
+     * @param constantTypes constant types
+     */
+    DirectCompiler(ClassLoader classLoader, String[] names, Class<?>[] argTypes,
+            String[] constantNames, Class<?>[] constantTypes) {
+        this.classLoader = classLoader;
+        this.names = names;
+        this.argTypes = argTypes;
+        this.constantNames = constantNames;
+        this.constantTypes = constantTypes;
+    }
+
+    /**
+     * Compile the given source
+     *
+     * @param className binary name of the class
+     * @param source evaluator source
+     * @param projection projection type
+     * @return class file
+     * @throws UnsupportedSourceException if the source is not supported
+     */
+    byte[] compile(String className, String source, ClassType projection) {
+        if (names.length > MAX_ARITY) {
+            throw new UnsupportedSourceException("More than " + MAX_ARITY + " arguments");
+        }
+        Node body = parse(source);
+        Class<?> projectionClass = projection.getJavaClass();
+        Class<?> variant = VARIANTS.get(projectionClass);
+        String superName, methodName, signature = null;
+        int returnOpcode;
+        if (variant != null) {
+            body = convert(body, projectionClass, true);
+            superName = Descriptors.getInternalName(variant);
+            methodName = "eval" + Character.toUpperCase(projectionClass.getName().charAt(0))
+                    + projectionClass.getName().substring(1);
+            returnOpcode = projectionClass == long.class ? LRETURN
+                    : (projectionClass == double.class ? DRETURN : IRETURN);
+        } else {
+            if (projectionClass.isPrimitive()) {
+                body = convert(convert(body, projectionClass, true), Primitives.wrap(projectionClass), true);
+            } else {
+                body = convert(body, projectionClass, true);
+                signature = "L" + DIRECT_EVALUATOR + "<" + Descriptors.getSignature(projection) + ">;";
+            }
+            superName = DIRECT_EVALUATOR;
+            methodName = "eval";
+            returnOpcode = ARETURN;
+        }
+        ClassFileWriter writer = new ClassFileWriter(ACC_PUBLIC | ACC_FINAL | ACC_SUPER,
+                className.replace('.', '/'), superName, signature);
+
+        Code constructor = writer.method(ACC_PUBLIC, "<init>",
+                "(Ljava/lang/Class;[Ljava/lang/Object;)V", 3);
+        constructor.aload(0);
+        constructor.aload(1);
+        constructor.aload(2);
+        constructor.iconst(names.length);
+        constructor.invoke(INVOKESPECIAL, superName, "<init>",
+                "(Ljava/lang/Class;[Ljava/lang/Object;I)V");
+        constructor.op(RETURN, 0);
+
+        String returnDescriptor = variant != null ? Descriptors.getDescriptor(projectionClass)
+                : "Ljava/lang/Object;";
+        Code eval = writer.method(ACC_PROTECTED | ACC_FINAL, methodName,
+                EVAL_DESCRIPTOR + returnDescriptor, 1 + MAX_ARITY);
+        body.emit(eval);
+        eval.op(returnOpcode, -ClassFileWriter.getSize(returnDescriptor));
+        return writer.toByteArray();
+    }
+
+    // parsing
+
+    private Node parse(String source) {
+        this.source = source.trim();
+        this.pos = 0;
+        next();
+        if (!"return".equals(token) || !identifier) {
+            throw new UnsupportedSourceException("Not a return statement");
+        }
+        next();
+        Node node = parseOr();
+        if (!";".equals(token)) {
+            throw new UnsupportedSourceException("Unexpected " + token);
+        }
+        next();
+        if (token != null) {
+            throw new UnsupportedSourceException("More than one statement");
+        }
+        return node;
+    }
+
+    private Node parseOr() {
+        Node node = parseAnd();
+        while ("||".equals(token)) {
+            next();
+            node = new Logical(false, toBoolean(node), toBoolean(parseAnd()));
+        }
+        return node;
+    }
+
+    private Node parseAnd() {
+        Node node = parseEquality();
+        while ("&&".equals(token)) {
+            next();
+            node = new Logical(true, toBoolean(node), toBoolean(parseEquality()));
+        }
+        return node;
+    }
+
+    private Node parseEquality() {
+        Node node = parseRelational();
+        while ("==".equals(token) || "!=".equals(token)) {
+            String op = token;
+            next();
+            node = equality(op, node, parseRelational());
+        }
+        return node;
+    }
+
+    private Node parseRelational() {
+        Node node = parseAdditive();
+        while ("<".equals(token) || ">".equals(token) || "<=".equals(token) || ">=".equals(token)) {
+            String op = token;
+            next();
+            Node right = parseAdditive();
+            Class<?> type = promote(node, right);
+            node = new Comparison(COMPARISONS.get(op), convert(node, type, true),
+                    convert(right, type, true));
+        }
+        return node;
+    }
+
+    private Node parseAdditive() {
+        Node node = parseMultiplicative();
+        while ("+".equals(token) || "-".equals(token)) {
+            String op = token;
+            next();
+            node = arithmetic(op, node, parseMultiplicative());
+        }
+        return node;
+    }
+
+    private Node parseMultiplicative() {
+        Node node = parseUnary();
+        while ("*".equals(token) || "/".equals(token) || "%".equals(token)) {
+            String op = token;
+            next();
+            node = arithmetic(op, node, parseUnary());
+        }
+        return node;
+    }
+
+    private Node parseUnary() {
+        if ("!".equals(token)) {
+            next();
+            return new Not(toBoolean(parseUnary()));
+        } else if ("-".equals(token)) {
+            next();
+            Node operand = parseUnary();
+            Class<?> type = promote(operand, operand);
+            return new Negation(convert(operand, type, true));
+        } else {
+            return parsePostfix();
+        }
+    }
+
+    private Node parsePostfix() {
+        Node node = parsePrimary();
+        while (".".equals(token)) {
+            next();
+            if (!identifier) {
+                throw new UnsupportedSourceException("Expected member name");
+            }
+            String name = token;
+            next();
+            if ("(".equals(token)) {
+                next();
+                List<Node> args = new ArrayList<Node>();
+                if (!")".equals(token)) {
+                    args.add(parseOr());
+                    while (",".equals(token)) {
+                        next();
+                        args.add(parseOr());
+                    }
+                }
+                expect(")");
+                node = call(node, name, args);
+            } else {
+                node = field(node, name);
+            }
+        }
+        return node;
+    }
+
+    private Node parsePrimary() {
+        if (token == null) {
+            throw new UnsupportedSourceException("Unexpected end");
+        } else if ("(".equals(token)) {
+            next();
+            Node node = parseOr();
+            expect(")");
+            return node;
+        } else if (literal != null) {
+            Node node = new Literal(literal);
+            next();
+            return node;
+        } else if (identifier) {
+            String name = token;
+            next();
+            if (name.equals("true") || name.equals("false")) {
+                return new Literal(Boolean.valueOf(name));
+            } else if (name.equals("null")) {
+                return new Literal(null);
+            }
+            int index = Arrays.asList(names).indexOf(name);
+            if (index > -1) {
+                return new Argument(index, checkVisible(argTypes[index]));
+            }
+            index = Arrays.asList(constantNames).indexOf(name);
+            if (index > -1) {
+                return new Constant(index, checkVisible(constantTypes[index]));
+            }
+            throw new UnsupportedSourceException("Unknown identifier " + name);
+        } else {
+            throw new UnsupportedSourceException("Unexpected " + token);
+        }
+    }
+
+    private void expect(String expected) {
+        if (!expected.equals(token)) {
+            throw new UnsupportedSourceException("Expected " + expected);
+        }
+        next();
+    }
+
+    // tokens
+
+    private void next() {
+        literal = null;
+        identifier = false;
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+        if (pos >= source.length()) {
+            token = null;
+            return;
+        }
+        int start = pos;
+        char c = source.charAt(pos);
+        if (Character.isJavaIdentifierStart(c)) {
+            while (pos < source.length() && Character.isJavaIdentifierPart(source.charAt(pos))) {
+                pos++;
+            }
+            identifier = true;
+        } else if (Character.isDigit(c)
+                || (c == '.' && pos + 1 < source.length() && Character.isDigit(source.charAt(pos + 1)))) {
+            pos++;
+            while (pos < source.length()) {
+                char n = source.charAt(pos);
+                char p = source.charAt(pos - 1);
+                if (Character.isLetterOrDigit(n) || n == '.'
+                        || ((n == '+' || n == '-') && (p == 'e' || p == 'E'))) {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            literal = parseNumber(source.substring(start, pos));
+        } else if (c == '"' || c == '\'') {
+            StringBuilder value = new StringBuilder();
+            pos++;
+            while (pos < source.length() && source.charAt(pos) != c) {
+                char n = source.charAt(pos++);
+                if (n == '\\' && pos < source.length()) {
+                    value.append(unescape(source.charAt(pos++)));
+                } else {
+                    value.append(n);
+                }
+            }
+            if (pos++ >= source.length()) {
+                throw new UnsupportedSourceException("Unterminated literal");
+            }
+            if (c == '"') {
+                literal = value.toString();
+            } else if (value.length() == 1) {
+                literal = value.charAt(0);
+            } else {
+                throw new UnsupportedSourceException("Invalid char literal");
+            }
+        } else if (pos + 1 < source.length() && isOperator(source.substring(pos, pos + 2))) {
+            pos += 2;
+        } else if ("+-*/%!<>().,;".indexOf(c) > -1) {
+            pos++;
+        } else {
+            throw new UnsupportedSourceException("Unsupported character " + c);
+        }
+        token = source.substring(start, pos);
+    }
+
+    private static boolean isOperator(String op) {
+        return op.equals("&&") || op.equals("||") || op.equals("==") || op.equals("!=")
+                || op.equals("<=") || op.equals(">=");
+    }
+
+    private static char unescape(char c) {
+        switch (c) {
+        case 'n': return '\n';
+        case 't': return '\t';
+        case 'r': return '\r';
+        case 'b': return '\b';
+        case 'f': return '\f';
+        case '"': case '\'': case '\\': return c;
+        default: throw new UnsupportedSourceException("Unsupported escape \\" + c);
+        }
+    }
+
+    private static Object parseNumber(String number) {
+        String lower = number.toLowerCase();
+        if (lower.contains("_") || (lower.startsWith("0") && lower.length() > 1
+                && !lower.startsWith("0.") && !lower.startsWith("0e")
+                && !lower.endsWith("l") && !lower.endsWith("f") && !lower.endsWith("d"))) {
+            // no octal, hex or binary literals
+            throw new UnsupportedSourceException("Unsupported literal " + number);
+        }
+        try {
+            if (lower.endsWith("l")) {
+                if (lower.length() > 2 && lower.startsWith("0")) {
+                    throw new UnsupportedSourceException("Unsupported literal " + number);
+                }
+                return Long.parseLong(number.substring(0, number.length() - 1));
+            } else if (lower.endsWith("f")) {
+                return Float.parseFloat(number);
+            } else if (lower.endsWith("d") || lower.contains(".") || lower.contains("e")) {
+                return Double.parseDouble(number);
+            } else {
+                return Integer.parseInt(number);
+            }
+        } catch (NumberFormatException e) {
+            throw new UnsupportedSourceException("Invalid literal " + number);
+        }
+    }
+
+    // typing
+
+    private Class<?> checkVisible(Class<?> cl) {
+        if (!isVisible(cl)) {
+            throw new UnsupportedSourceException(cl.getName() + " is not accessible");
+        }
+        return cl;
+    }
+
+    private boolean isVisible(Class<?> cl) {
+        while (cl.isArray()) {
+            cl = cl.getComponentType();
+        }
+        if (cl.isPrimitive()) {
+            return true;
+        }
+        for (Class<?> c = cl; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        try {
+            return Class.forName(cl.getName(), false, classLoader) == cl;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static Class<?> unboxed(Class<?> cl) {
+        return Primitives.isWrapperType(cl) ? Primitives.unwrap(cl) : cl;
+    }
+
+    private static boolean isNumeric(Class<?> cl) {
+        return cl.isPrimitive() && cl != boolean.class && cl != void.class;
+    }
+
+    /**
+     * @return binary numeric promotion of the operand types
+     */
+    private static Class<?> promote(Node left, Node right) {
+        Class<?> l = unboxed(left.type);
+        Class<?> r = unboxed(right.type);
+        if (!isNumeric(l) || !isNumeric(r)) {
+            throw new UnsupportedSourceException("Not numeric");
+        } else if (l == double.class || r == double.class) {
+            return double.class;
+        } else if (l == float.class || r == float.class) {
+            return float.class;
+        } else if (l == long.class || r == long.class) {
+            return long.class;
+        } else {
+            return int.class;
+        }
+    }
+
+    private static Node toBoolean(Node node) {
+        if (unboxed(node.type) != boolean.class) {
+            throw new UnsupportedSourceException("Not boolean");
+        }
+        return convert(node, boolean.class, true);
+    }
+
+    private static Node arithmetic(String op, Node left, Node right) {
+        if (op.equals("+") && (left.type == String.class || right.type == String.class)) {
+            throw new UnsupportedSourceException("String concatenation");
+        }
+        Class<?> type = promote(left, right);
+        return new Arithmetic(ARITHMETIC.get(op), type, convert(left, type, true),
+                convert(right, type, true));
+    }
+
+    private static Node equality(String op, Node left, Node right) {
+        int comparison = COMPARISONS.get(op);
+        Class<?> l = left.type;
+        Class<?> r = right.type;
+        if (l.isPrimitive() || r.isPrimitive()) {
+            if (unboxed(l) == boolean.class && unboxed(r) == boolean.class) {
+                return new Comparison(comparison, toBoolean(left), toBoolean(right));
+            }
+            Class<?> type = promote(left, right);
+            return new Comparison(comparison, convert(left, type, true), convert(right, type, true));
+        } else if (isNull(left) || isNull(right) || l.isAssignableFrom(r) || r.isAssignableFrom(l)) {
+            return new Comparison(comparison, left, right);
+        } else {
+            throw new UnsupportedSourceException("Incomparable types");
+        }
+    }
+
+    private static boolean isNull(Node node) {
+        return node instanceof Literal && ((Literal) node).value == null;
+    }
+
+    /**
+     * Check whether the node can be converted to the given type
+     *
+     * @param boxing whether boxing and unboxing are allowed
+     */
+    private static boolean isConvertible(Node node, Class<?> target, boolean boxing) {
+        Class<?> type = node.type;
+        if (target.isPrimitive()) {
+            if (!type.isPrimitive()) {
+                if (!boxing || !Primitives.isWrapperType(type)) {
+                    return false;
+                }
+                type = Primitives.unwrap(type);
+            }
+            return type == target || (WIDENING.containsKey(type) && WIDENING.get(type).contains(target));
+        } else if (isNull(node)) {
+            return true;
+        } else if (type.isPrimitive()) {
+            return boxing && type != void.class && target.isAssignableFrom(Primitives.wrap(type));
+        } else {
+            return target.isAssignableFrom(type);
+        }
+    }
+
+    private static Node convert(Node node, Class<?> target, boolean boxing) {
+        if (!isConvertible(node, target, boxing)) {
+            throw new UnsupportedSourceException(node.type.getName() + " is not assignable to "
+                    + target.getName());
+        } else if (node.type == target || (!target.isPrimitive() && !node.type.isPrimitive())) {
+            return node;
+        } else {
+            return new Conversion(node, target);
+        }
+    }
+
+    private Node field(Node target, String name) {
+        Class<?> type = target.type;
+        if (type.isArray() && name.equals("length")) {
+            return new ArrayLength(target);
+        } else if (type.isPrimitive() || isNull(target) || !isVisible(type)) {
+            throw new UnsupportedSourceException("Invalid field access " + name);
+        }
+        try {
+            Field field = type.getField(name);
+            if (Modifier.isStatic(field.getModifiers()) || !isVisible(field.getType())) {
+                throw new UnsupportedSourceException("Invalid field access " + name);
+            }
+            return new FieldAccess(target, field);
+        } catch (NoSuchFieldException e) {
+            throw new UnsupportedSourceException("No field " + name);
+        }
+    }
+
+    private Node call(Node target, String name, List<Node> args) {
+        Class<?> type = target.type;
+        if (type.isPrimitive() || type.isArray() || isNull(target) || !isVisible(type)) {
+            throw new UnsupportedSourceException("Invalid method call " + name);
+        }
+        List<Method> candidates = new ArrayList<Method>(Arrays.asList(type.getMethods()));
+        if (type.isInterface()) {
+            candidates.addAll(Arrays.asList(Object.class.getMethods()));
+        }
+        // strict invocation first, then with boxing
+        Method method = findMethod(candidates, name, args, false);
+        boolean boxing = false;
+        if (method == null) {
+            method = findMethod(candidates, name, args, true);
+            boxing = true;
+        }
+        if (method == null || method.getReturnType() == void.class
+                || !isVisible(method.getReturnType())) {
+            throw new UnsupportedSourceException("No applicable method " + name);
+        }
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Node[] converted = new Node[args.size()];
+        for (int i = 0; i < converted.length; i++) {
+            if (!isVisible(parameterTypes[i])) {
+                throw new UnsupportedSourceException("No applicable method " + name);
+            }
+            converted[i] = convert(args.get(i), parameterTypes[i], boxing);
+        }
+        return new Call(target, method, converted);
+    }
+
+    private static Method findMethod(List<Method> candidates, String name, List<Node> args,
+            boolean boxing) {
+        List<Method> applicable = new ArrayList<Method>();
+        for (Method method : candidates) {
+            if (!method.getName().equals(name) || Modifier.isStatic(method.getModifiers())
+                    || method.isBridge() || method.isSynthetic()
+                    || method.getParameterTypes().length != args.size()) {
+                continue;
+            }
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            boolean isApplicable = true;
+            for (int i = 0; i < parameterTypes.length && isApplicable; i++) {
+                isApplicable = isConvertible(args.get(i), parameterTypes[i], boxing);
+            }
+            if (isApplicable) {
+                applicable.add(method);
+            }
+        }
+        // the maximally specific methods, several only for the same parameter types
+        List<Method> maximal = new ArrayList<Method>();
+        for (Method method : applicable) {
+            boolean mostSpecific = true;
+            for (Iterator<Method> i = applicable.iterator(); i.hasNext() && mostSpecific;) {
+                mostSpecific = isMoreSpecific(method, i.next());
+            }
+            if (mostSpecific) {
+                maximal.add(method);
+            }
+        }
+        // of those the one with the most specific return type
+        Method result = null;
+        for (Method method : maximal) {
+            if (result == null || result.getReturnType().isAssignableFrom(method.getReturnType())) {
+                result = method;
+            }
+        }
+        for (Method method : maximal) {
+            if (!method.getReturnType().isAssignableFrom(result.getReturnType())) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isMoreSpecific(Method m1, Method m2) {
+        Class<?>[] p1 = m1.getParameterTypes();
+        Class<?>[] p2 = m2.getParameterTypes();
+        for (int i = 0; i < p1.length; i++) {
+            boolean widening = WIDENING.containsKey(p1[i]) && WIDENING.get(p1[i]).contains(p2[i]);
+            if (p1[i] != p2[i] && !widening && (p1[i].isPrimitive() || p2[i].isPrimitive()
+                    || !p2[i].isAssignableFrom(p1[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // code
+
+    /**
+     * Typed expression node
+     */
+    private abstract static class Node {
+
+        final Class<?> type;
+
+        Node(Class<?> type) {
+            this.type = type;
+        }
+
+        abstract void emit(Code code);
+
+    }
+
+    private static final class Literal extends Node {
+
+        final Object value;
+
+        Literal(Object value) {
+            super(value == null ? Object.class
+                    : (value instanceof String ? String.class : Primitives.unwrap(value.getClass())));
+            this.value = value;
+        }
+
+        @Override
+        void emit(Code code) {
+            if (value == null) {
+                code.op(ACONST_NULL, 1);
+            } else if (value instanceof String) {
+                code.sconst((String) value);
+            } else if (value instanceof Boolean) {
+                code.iconst((Boolean) value ? 1 : 0);
+            } else if (value instanceof Character) {
+                code.iconst((Character) value);
+            } else if (value instanceof Integer) {
+                code.iconst((Integer) value);
+            } else if (value instanceof Long) {
+                code.lconst((Long) value);
+            } else if (value instanceof Float) {
+                code.fconst((Float) value);
+            } else {
+                code.dconst((Double) value);
+            }
+        }
+
+    }
+
+    private static final class Argument extends Node {
+
+        private final int index;
+
+        Argument(int index, Class<?> type) {
+            super(type);
+            this.index = index;
+        }
+
+        @Override
+        void emit(Code code) {
+            code.aload(index + 1);
+            emitCast(code, type);
+        }
+
+    }
+
+    private static final class Constant extends Node {
+
+        private final int index;
+
+        Constant(int index, Class<?> type) {
+            super(type);
+            this.index = index;
+        }
+
+        @Override
+        void emit(Code code) {
+            code.aload(0);
+            code.getfield(DIRECT_EVALUATOR, "constants", "[Ljava/lang/Object;");
+            code.iconst(index);
+            code.op(AALOAD, -1);
+            emitCast(code, type);
+        }
+
+    }
+
+    private static void emitCast(Code code, Class<?> type) {
+        if (type.isPrimitive()) {
+            Class<?> wrapper = Primitives.wrap(type);
+            code.checkcast(Descriptors.getInternalName(wrapper));
+            code.invoke(INVOKEVIRTUAL, Descriptors.getInternalName(wrapper),
+                    type.getName() + "Value", "()" + Descriptors.getDescriptor(type));
+        } else if (type != Object.class) {
+            code.checkcast(Descriptors.getInternalName(type));
+        }
+    }
+
+    private static final class Conversion extends Node {
+
+        private final Node node;
+
+        Conversion(Node node, Class<?> type) {
+            super(type);
+            this.node = node;
+        }
+
+        @Override
+        void emit(Code code) {
+            node.emit(code);
+            Class<?> from = node.type;
+            if (!type.isPrimitive()) {
+                // boxing
+                code.invoke(INVOKESTATIC, Descriptors.getInternalName(Primitives.wrap(from)),
+                        "valueOf", Descriptors.getMethodDescriptor(Primitives.wrap(from), from));
+                return;
+            }
+            if (!from.isPrimitive()) {
+                // unboxing
+                Class<?> primitive = Primitives.unwrap(from);
+                code.invoke(INVOKEVIRTUAL, Descriptors.getInternalName(from),
+                        primitive.getName() + "Value", "()" + Descriptors.getDescriptor(primitive));
+                from = primitive;
+            }
+            // widening
+            if (from == type) {
+                return;
+            } else if (from == long.class) {
+                code.op(type == float.class ? L2F : L2D, type == float.class ? -1 : 0);
+            } else if (from == float.class) {
+                code.op(F2D, 1);
+            } else if (type == long.class) {
+                code.op(I2L, 1);
+            } else if (type == float.class) {
+                code.op(I2F, 0);
+            } else if (type == double.class) {
+                code.op(I2D, 1);
+            }
+        }
+
+    }
+
+    private static int getSize(Class<?> type) {
+        return type == long.class || type == double.class ? 2 : 1;
+    }
+
+    private static int getOffset(Class<?> type) {
+        return type == long.class ? 1 : (type == float.class ? 2 : (type == double.class ? 3 : 0));
+    }
+
+    private static final class Arithmetic extends Node {
+
+        private final int opcode;
+
+        private final Node left, right;
+
+        Arithmetic(int opcode, Class<?> type, Node left, Node right) {
+            super(type);
+            this.opcode = opcode;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void emit(Code code) {
+            left.emit(code);
+            right.emit(code);
+            code.op(opcode + getOffset(type), -getSize(type));
+        }
+
+    }
+
+    private static final class Negation extends Node {
+
+        private final Node operand;
+
+        Negation(Node operand) {
+            super(operand.type);
+            this.operand = operand;
+        }
+
+        @Override
+        void emit(Code code) {
+            operand.emit(code);
+            code.op(INEG + getOffset(type), 0);
+        }
+
+    }
+
+    private static final class Not extends Node {
+
+        private final Node operand;
+
+        Not(Node operand) {
+            super(boolean.class);
+            this.operand = operand;
+        }
+
+        @Override
+        void emit(Code code) {
+            operand.emit(code);
+            code.iconst(1);
+            code.op(IXOR, -1);
+        }
+
+    }
+
+    private static final class Comparison extends Node {
+
+        // 0 ==, 1 !=, 2 <, 3 >=, 4 >, 5 <=
+        private final int comparison;
+
+        private final Node left, right;
+
+        Comparison(int comparison, Node left, Node right) {
+            super(boolean.class);
+            this.comparison = comparison;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void emit(Code code) {
+            left.emit(code);
+            right.emit(code);
+            Class<?> operands = left.type;
+            int jump;
+            if (!operands.isPrimitive()) {
+                jump = IF_ACMPEQ + comparison;
+            } else if (operands == long.class) {
+                code.op(LCMP, -3);
+                jump = IFEQ + comparison;
+            } else if (operands == float.class) {
+                // NaN makes < and <= false
+                code.op(comparison == 2 || comparison == 5 ? FCMPG : FCMPL, -1);
+                jump = IFEQ + comparison;
+            } else if (operands == double.class) {
+                code.op(comparison == 2 || comparison == 5 ? DCMPG : DCMPL, -3);
+                jump = IFEQ + comparison;
+            } else {
+                jump = IF_ICMPEQ + comparison;
+            }
+            Label isTrue = new Label();
+            Label end = new Label();
+            code.jump(jump, isTrue);
+            code.iconst(0);
+            code.jump(GOTO, end);
+            code.mark(isTrue);
+            code.iconst(1);
+            code.mark(end);
+        }
+
+    }
+
+    private static final class Logical extends Node {
+
+        private final boolean and;
+
+        private final Node left, right;
+
+        Logical(boolean and, Node left, Node right) {
+            super(boolean.class);
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void emit(Code code) {
+            Label shortCircuit = new Label();
+            Label end = new Label();
+            left.emit(code);
+            code.jump(and ? IFEQ : IFNE, shortCircuit);
+            right.emit(code);
+            code.jump(GOTO, end);
+            code.mark(shortCircuit);
+            code.iconst(and ? 0 : 1);
+            code.mark(end);
+        }
+
+    }
+
+    private static final class ArrayLength extends Node {
+
+        private final Node target;
+
+        ArrayLength(Node target) {
+            super(int.class);
+            this.target = target;
+        }
+
+        @Override
+        void emit(Code code) {
+            target.emit(code);
+            code.op(ARRAYLENGTH, 0);
+        }
+
+    }
+
+    private static final class FieldAccess extends Node {
+
+        private final Node target;
+
+        private final Field field;
+
+        FieldAccess(Node target, Field field) {
+            super(field.getType());
+            this.target = target;
+            this.field = field;
+        }
+
+        @Override
+        void emit(Code code) {
+            target.emit(code);
+            // owned by the static type, like javac does, since the declaring class may be hidden
+            code.getfield(Descriptors.getInternalName(target.type), field.getName(),
+                    Descriptors.getDescriptor(field.getType()));
+        }
+
+    }
+
+    private static final class Call extends Node {
+
+        private final Node target;
+
+        private final Method method;
+
+        private final Node[] args;
+
+        Call(Node target, Method method, Node[] args) {
+            super(method.getReturnType());
+            this.target = target;
+            this.method = method;
+            this.args = args;
+        }
+
+        @Override
+        void emit(Code code) {
+            target.emit(code);
+            for (Node arg : args) {
+                arg.emit(code);
+            }
+            String descriptor = Descriptors.getMethodDescriptor(method.getReturnType(),
+                    method.getParameterTypes());
+            if (method.getDeclaringClass() == Object.class) {
+                code.invoke(INVOKEVIRTUAL, "java/lang/Object", method.getName(), descriptor);
+            } else if (target.type.isInterface()) {
+                code.invoke(INVOKEINTERFACE, Descriptors.getInternalName(target.type),
+                        method.getName(), descriptor);
+            } else {
+                code.invoke(INVOKEVIRTUAL, Descriptors.getInternalName(target.type),
+                        method.getName(), descriptor);
+            }
+        }
+
+    }
+
+}
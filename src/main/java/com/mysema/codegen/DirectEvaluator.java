@@ -0,0 +1,275 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+/**
+ * DirectEvaluator is the superclass of the classes emitted by {@link DirectEvaluatorFactory}.
+ * The emitted classes only implement the evaluation of up to three arguments, the argument
+ * handling of the Evaluator methods is inherited.
+ *
+ * <p>This class is public, so that it can be extended by classes of other class loaders,
+ * it isn't meant to be extended otherwise.</p>
+ *
+ * @author tiwe
+ *
+ * @param <T> projection type
+ */
+public abstract class DirectEvaluator<T> implements Evaluator<T> {
+
+    private final Class<? extends T> type;
+
+    private final int arity;
+
+    protected final Object[] constants;
+
+    protected DirectEvaluator(Class<? extends T> type, Object[] constants, int arity) {
+        this.type = type;
+        this.constants = constants;
+        this.arity = arity;
+    }
+
+    /**
+     * Evaluate the expression, unused arguments are null
+     */
+    protected abstract Object eval(Object a, Object b, Object c);
+
+    final void checkArity(int length) {
+        if (length < arity) {
+            throw new IllegalArgumentException("Expected " + arity + " arguments, got " + length);
+        }
+    }
+
+    static Object arg(Object[] args, int index) {
+        return index < args.length ? args[index] : null;
+    }
+
+    @Override
+    public T evaluate(Object... args) {
+        checkArity(args.length);
+        return evaluate(arg(args, 0), arg(args, 1), arg(args, 2));
+    }
+
+    @Override
+    public T evaluate(Object a) {
+        checkArity(1);
+        return evaluate(a, null, null);
+    }
+
+    @Override
+    public T evaluate(Object a, Object b) {
+        checkArity(2);
+        return evaluate(a, b, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T evaluate(Object a, Object b, Object c) {
+        checkArity(3);
+        try {
+            return (T) eval(a, b, c);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public Class<? extends T> getType() {
+        return type;
+    }
+
+    /**
+     * Superclass of emitted int evaluators
+     */
+    public abstract static class OfInt extends DirectEvaluator<Integer> implements IntEvaluator {
+
+        protected OfInt(Class<? extends Integer> type, Object[] constants, int arity) {
+            super(type, constants, arity);
+        }
+
+        protected abstract int evalInt(Object a, Object b, Object c);
+
+        @Override
+        protected final Object eval(Object a, Object b, Object c) {
+            return evalInt(a, b, c);
+        }
+
+        @Override
+        public int evaluateInt(Object... args) {
+            checkArity(args.length);
+            return evaluateInt(arg(args, 0), arg(args, 1), arg(args, 2));
+        }
+
+        @Override
+        public int evaluateInt(Object a) {
+            checkArity(1);
+            return evaluateInt(a, null, null);
+        }
+
+        @Override
+        public int evaluateInt(Object a, Object b) {
+            checkArity(2);
+            return evaluateInt(a, b, null);
+        }
+
+        @Override
+        public int evaluateInt(Object a, Object b, Object c) {
+            checkArity(3);
+            try {
+                return evalInt(a, b, c);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Superclass of emitted long evaluators
+     */
+    public abstract static class OfLong extends DirectEvaluator<Long> implements LongEvaluator {
+
+        protected OfLong(Class<? extends Long> type, Object[] constants, int arity) {
+            super(type, constants, arity);
+        }
+
+        protected abstract long evalLong(Object a, Object b, Object c);
+
+        @Override
+        protected final Object eval(Object a, Object b, Object c) {
+            return evalLong(a, b, c);
+        }
+
+        @Override
+        public long evaluateLong(Object... args) {
+            checkArity(args.length);
+            return evaluateLong(arg(args, 0), arg(args, 1), arg(args, 2));
+        }
+
+        @Override
+        public long evaluateLong(Object a) {
+            checkArity(1);
+            return evaluateLong(a, null, null);
+        }
+
+        @Override
+        public long evaluateLong(Object a, Object b) {
+            checkArity(2);
+            return evaluateLong(a, b, null);
+        }
+
+        @Override
+        public long evaluateLong(Object a, Object b, Object c) {
+            checkArity(3);
+            try {
+                return evalLong(a, b, c);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Superclass of emitted double evaluators
+     */
+    public abstract static class OfDouble extends DirectEvaluator<Double> implements DoubleEvaluator {
+
+        protected OfDouble(Class<? extends Double> type, Object[] constants, int arity) {
+            super(type, constants, arity);
+        }
+
+        protected abstract double evalDouble(Object a, Object b, Object c);
+
+        @Override
+        protected final Object eval(Object a, Object b, Object c) {
+            return evalDouble(a, b, c);
+        }
+
+        @Override
+        public double evaluateDouble(Object... args) {
+            checkArity(args.length);
+            return evaluateDouble(arg(args, 0), arg(args, 1), arg(args, 2));
+        }
+
+        @Override
+        public double evaluateDouble(Object a) {
+            checkArity(1);
+            return evaluateDouble(a, null, null);
+        }
+
+        @Override
+        public double evaluateDouble(Object a, Object b) {
+            checkArity(2);
+            return evaluateDouble(a, b, null);
+        }
+
+        @Override
+        public double evaluateDouble(Object a, Object b, Object c) {
+            checkArity(3);
+            try {
+                return evalDouble(a, b, c);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Superclass of emitted boolean evaluators
+     */
+    public abstract static class OfBoolean extends DirectEvaluator<Boolean> implements BooleanEvaluator {
+
+        protected OfBoolean(Class<? extends Boolean> type, Object[] constants, int arity) {
+            super(type, constants, arity);
+        }
+
+        protected abstract boolean evalBoolean(Object a, Object b, Object c);
+
+        @Override
+        protected final Object eval(Object a, Object b, Object c) {
+            return evalBoolean(a, b, c);
+        }
+
+        @Override
+        public boolean evaluateBoolean(Object... args) {
+            checkArity(args.length);
+            return evaluateBoolean(arg(args, 0), arg(args, 1), arg(args, 2));
+        }
+
+        @Override
+        public boolean evaluateBoolean(Object a) {
+            checkArity(1);
+            return evaluateBoolean(a, null, null);
+        }
+
+        @Override
+        public boolean evaluateBoolean(Object a, Object b) {
+            checkArity(2);
+            return evaluateBoolean(a, b, null);
+        }
+
+        @Override
+        public boolean evaluateBoolean(Object a, Object b, Object c) {
+            checkArity(3);
+            try {
+                return evalBoolean(a, b, c);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+    }
+
+}
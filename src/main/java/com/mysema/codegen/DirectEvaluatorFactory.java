@@ -0,0 +1,377 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.support.ClassUtils;
+
+/**
+ * DirectEvaluatorFactory is an EvaluatorFactory which emits the class files of simple
+ * expressions directly instead of compiling generated sources. Sources which are not
+ * supported by {@link DirectCompiler} are delegated to the fallback factory.
+ *
+ * <p>Each emitted class is defined in its own class loader, so that it can be unloaded
+ * independently of the others, once it has been evicted from the cache. The cache bounds
+ * default to the ones of an {@link AbstractEvaluatorFactory} fallback.</p>
+ *
+ * @author tiwe
+ *
+ */
+public class DirectEvaluatorFactory implements EvaluatorFactory {
+
+    private static final long DEFAULT_UNSUPPORTED_CACHE_SIZE = 1000;
+
+    private static final Weigher<String, EmittedClass> SIZE_WEIGHER = new Weigher<String, EmittedClass>() {
+        @Override
+        public int weigh(String key, EmittedClass value) {
+            return value.size;
+        }
+    };
+
+    private static final class EmittedClass {
+
+        private final Constructor<?> constructor;
+
+        private final int size;
+
+        EmittedClass(Constructor<?> constructor, int size) {
+            this.constructor = constructor;
+            this.size = size;
+        }
+
+    }
+
+    private static final class DirectClassLoader extends ClassLoader {
+
+        DirectClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+    private final ClassLoader parent;
+
+    private final EvaluatorFactory fallback;
+
+    private long maximumCacheSize = -1;
+
+    private long maximumCacheWeight = -1;
+
+    private volatile Cache<String, EmittedClass> cache;
+
+    private long unsupportedCacheSize = DEFAULT_UNSUPPORTED_CACHE_SIZE;
+
+    // keys of the sources, which are delegated to the fallback
+    private volatile Cache<String, Boolean> unsupported = createUnsupportedCache();
+
+    public DirectEvaluatorFactory(ClassLoader parent) {
+        this(parent, new ECJEvaluatorFactory(parent));
+    }
+
+    /**
+     * @param parent parent class loader of the emitted classes
+     * @param fallback factory for the sources which can't be emitted directly
+     */
+    public DirectEvaluatorFactory(ClassLoader parent, EvaluatorFactory fallback) {
+        this.parent = parent;
+        this.fallback = fallback;
+        if (fallback instanceof AbstractEvaluatorFactory) {
+            AbstractEvaluatorFactory factory = (AbstractEvaluatorFactory) fallback;
+            this.maximumCacheSize = factory.getMaximumCacheSize();
+            this.maximumCacheWeight = factory.getMaximumCacheWeight();
+        }
+        this.cache = createCache();
+    }
+
+    @Override
+    public <T> Evaluator<T> createEvaluator(String source, Class<? extends T> projectionType,
+            String[] names, Class<?>[] classes, Map<String, Object> constants) {
+        EvaluatorSpec spec = new EvaluatorSpec(source, projectionType, names, classes, constants);
+        return createEvaluator(source, spec.getProjection(), names, spec.getTypes(), classes,
+                constants);
+    }
+
+    @Override
+    public <T> Evaluator<T> createEvaluator(String source, ClassType projection, String[] names,
+            Type[] types, Class<?>[] classes, Map<String, Object> constants) {
+        Evaluator<T> evaluator = createDirectEvaluator(source, projection, names, types, constants);
+        if (evaluator != null) {
+            return evaluator;
+        } else {
+            return fallback.createEvaluator(source, projection, names, types, classes, constants);
+        }
+    }
+
+    @Override
+    public <T> ListenableFuture<Evaluator<T>> createEvaluatorAsync(String source,
+            Class<? extends T> projectionType, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        EvaluatorSpec spec = new EvaluatorSpec(source, projectionType, names, classes, constants);
+        return createEvaluatorAsync(source, spec.getProjection(), names, spec.getTypes(), classes,
+                constants);
+    }
+
+    @Override
+    public <T> ListenableFuture<Evaluator<T>> createEvaluatorAsync(String source,
+            ClassType projection, String[] names, Type[] types, Class<?>[] classes,
+            Map<String, Object> constants) {
+        Evaluator<T> evaluator = createDirectEvaluator(source, projection, names, types, constants);
+        if (evaluator != null) {
+            return Futures.immediateFuture(evaluator);
+        } else {
+            return fallback.createEvaluatorAsync(source, projection, names, types, classes,
+                    constants);
+        }
+    }
+
+    @Override
+    public List<Evaluator<?>> createEvaluators(List<EvaluatorSpec> specs) {
+        Evaluator<?>[] evaluators = new Evaluator<?>[specs.size()];
+        List<Integer> indices = new ArrayList<Integer>();
+        List<EvaluatorSpec> fallbackSpecs = new ArrayList<EvaluatorSpec>();
+        for (int i = 0; i < evaluators.length; i++) {
+            EvaluatorSpec spec = specs.get(i);
+            evaluators[i] = createDirectEvaluator(spec.getSource(), spec.getProjection(),
+                    spec.getNames(), spec.getTypes(), spec.getConstants());
+            if (evaluators[i] == null) {
+                indices.add(i);
+                fallbackSpecs.add(spec);
+            }
+        }
+        if (!fallbackSpecs.isEmpty()) {
+            List<Evaluator<?>> fallbackEvaluators = fallback.createEvaluators(fallbackSpecs);
+            for (int i = 0; i < indices.size(); i++) {
+                evaluators[indices.get(i)] = fallbackEvaluators.get(i);
+            }
+        }
+        return Arrays.asList(evaluators);
+    }
+
+    @Override
+    public IntEvaluator createIntEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        return createPrimitiveEvaluator(IntEvaluator.class, source, int.class, names, classes,
+                constants);
+    }
+
+    @Override
+    public LongEvaluator createLongEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        return createPrimitiveEvaluator(LongEvaluator.class, source, long.class, names, classes,
+                constants);
+    }
+
+    @Override
+    public DoubleEvaluator createDoubleEvaluator(String source, String[] names,
+            Class<?>[] classes, Map<String, Object> constants) {
+        return createPrimitiveEvaluator(DoubleEvaluator.class, source, double.class, names,
+                classes, constants);
+    }
+
+    @Override
+    public BooleanEvaluator createBooleanEvaluator(String source, String[] names,
+            Class<?>[] classes, Map<String, Object> constants) {
+        return createPrimitiveEvaluator(BooleanEvaluator.class, source, boolean.class, names,
+                classes, constants);
+    }
+
+    private <E> E createPrimitiveEvaluator(Class<E> evaluatorType, String source,
+            Class<?> projectionType, String[] names, Class<?>[] classes,
+            Map<String, Object> constants) {
+        Evaluator<?> evaluator = createEvaluator(source, projectionType, names, classes, constants);
+        if (evaluatorType.isInstance(evaluator)) {
+            return evaluatorType.cast(evaluator);
+        } else {
+            throw new CodegenException("Generated class doesn't implement " + evaluatorType.getName());
+        }
+    }
+
+    /**
+     * @return evaluator or null, if the source isn't supported
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Evaluator<T> createDirectEvaluator(final String source, final ClassType projection,
+            final String[] names, final Type[] types, Map<String, Object> constants) {
+        if (constants == null) {
+            return null;
+        }
+        final String[] constantNames = constants.keySet().toArray(new String[constants.size()]);
+        final Class<?>[] constantTypes = new Class<?>[constantNames.length];
+        for (int i = 0; i < constantNames.length; i++) {
+            constantTypes[i] = ClassUtils.normalize(constants.get(constantNames[i]).getClass());
+        }
+        String key = toKey(source, projection, names, types, constantNames, constantTypes);
+        if (unsupported.getIfPresent(key) != null) {
+            return null;
+        }
+        final String className = toId(key);
+        try {
+            EmittedClass emitted = cache.get(key, new Callable<EmittedClass>() {
+                @Override
+                public EmittedClass call() {
+                    return emit(className, source, projection, names, types, constantNames,
+                            constantTypes);
+                }
+            });
+            return (Evaluator<T>) emitted.constructor.newInstance(projection.getJavaClass(),
+                    constants.values().toArray());
+        } catch (ExecutionException e) {
+            throw new CodegenException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof DirectCompiler.UnsupportedSourceException) {
+                unsupported.put(key, Boolean.TRUE);
+                return null;
+            }
+            throw new CodegenException(e.getCause());
+        } catch (InstantiationException e) {
+            throw new CodegenException(e);
+        } catch (IllegalAccessException e) {
+            throw new CodegenException(e);
+        } catch (InvocationTargetException e) {
+            throw new CodegenException(e.getCause());
+        }
+    }
+
+    /**
+     * @throws DirectCompiler.UnsupportedSourceException if the source can't be emitted
+     */
+    private EmittedClass emit(String className, String source, ClassType projection,
+            String[] names, Type[] types, String[] constantNames, Class<?>[] constantTypes) {
+        Class<?>[] argTypes = new Class<?>[types.length];
+        try {
+            for (int i = 0; i < types.length; i++) {
+                argTypes[i] = types[i].getJavaClass();
+            }
+        } catch (RuntimeException e) {
+            throw new DirectCompiler.UnsupportedSourceException("Type model without Java class");
+        }
+        DirectCompiler compiler = new DirectCompiler(parent, names, argTypes, constantNames,
+                constantTypes);
+        byte[] bytes = compiler.compile(className, source, projection);
+        try {
+            // link and verify eagerly, so that invalid classes are detected here
+            Class<?> clazz = new DirectClassLoader(parent).define(className, bytes);
+            Class.forName(className, true, clazz.getClassLoader());
+            return new EmittedClass(clazz.getConstructor(Class.class, Object[].class),
+                    bytes.length);
+        } catch (LinkageError e) {
+            throw new DirectCompiler.UnsupportedSourceException(e.toString());
+        } catch (ClassNotFoundException e) {
+            throw new CodegenException(e);
+        } catch (NoSuchMethodException e) {
+            throw new CodegenException(e);
+        }
+    }
+
+    private Cache<String, EmittedClass> createCache() {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (maximumCacheSize >= 0) {
+            builder.maximumSize(maximumCacheSize);
+        }
+        if (maximumCacheWeight >= 0) {
+            return builder.maximumWeight(maximumCacheWeight).weigher(SIZE_WEIGHER).build();
+        }
+        return builder.build();
+    }
+
+    private Cache<String, Boolean> createUnsupportedCache() {
+        return CacheBuilder.newBuilder().maximumSize(unsupportedCacheSize)
+                .<String, Boolean>build();
+    }
+
+    /**
+     * Set the maximum amount of emitted classes to be cached. Least recently used
+     * classes are evicted first. Cached classes are discarded.
+     *
+     * @param maximumCacheSize maximum entry count or -1 for no limit
+     * @throws IllegalArgumentException if a maximum cache weight is set
+     */
+    public synchronized void setMaximumCacheSize(long maximumCacheSize) {
+        if (maximumCacheSize >= 0 && maximumCacheWeight >= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum cache size can't be combined with a maximum cache weight");
+        }
+        this.maximumCacheSize = maximumCacheSize;
+        cache = createCache();
+    }
+
+    /**
+     * Set the maximum total bytecode size of the cached classes. Least recently used
+     * classes are evicted first. Cached classes are discarded.
+     *
+     * @param maximumCacheWeight maximum total size in bytes or -1 for no limit
+     * @throws IllegalArgumentException if a maximum cache size is set
+     */
+    public synchronized void setMaximumCacheWeight(long maximumCacheWeight) {
+        if (maximumCacheWeight >= 0 && maximumCacheSize >= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum cache weight can't be combined with a maximum cache size");
+        }
+        this.maximumCacheWeight = maximumCacheWeight;
+        cache = createCache();
+    }
+
+    /**
+     * Set the maximum amount of sources, which are remembered to be delegated to the
+     * fallback without another attempt to emit them. Defaults to 1000 sources.
+     *
+     * @param maximumSize maximum amount of remembered sources or 0 to disable the cache
+     */
+    public synchronized void setUnsupportedCacheSize(long maximumSize) {
+        this.unsupportedCacheSize = maximumSize;
+        unsupported = createUnsupportedCache();
+    }
+
+    private static String toKey(String source, ClassType projection, String[] names,
+            Type[] types, String[] constantNames, Class<?>[] constantTypes) {
+        // the counts delimit the lines, the source comes last
+        StringBuilder key = new StringBuilder(128);
+        key.append(projection.getGenericName(false)).append('\n');
+        key.append(names.length).append(' ').append(constantNames.length).append('\n');
+        for (int i = 0; i < names.length; i++) {
+            key.append(names[i]).append(' ').append(types[i].getGenericName(false)).append('\n');
+        }
+        for (int i = 0; i < constantNames.length; i++) {
+            key.append(constantNames[i]).append(' ').append(constantTypes[i].getName()).append('\n');
+        }
+        return key.append(source).toString();
+    }
+
+    private static String toId(String key) {
+        return "D_" + Hashing.sha256().hashString(key, Charsets.UTF_8);
+    }
+
+}
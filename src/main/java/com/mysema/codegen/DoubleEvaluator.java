@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+/**
+ * DoubleEvaluator is an Evaluator for expressions of type double, which returns the result
+ * without boxing
+ * 
+ * @author tiwe
+ * 
+ */
+public interface DoubleEvaluator extends Evaluator<Double> {
+
+    /**
+     * @param args
+     * @return
+     */
+    double evaluateDouble(Object... args);
+
+    /**
+     * @param a
+     * @return
+     */
+    double evaluateDouble(Object a);
+
+    /**
+     * @param a
+     * @param b
+     * @return
+     */
+    double evaluateDouble(Object a, Object b);
+
+    /**
+     * @param a
+     * @param b
+     * @param c
+     * @return
+     */
+    double evaluateDouble(Object a, Object b, Object c);
+
+}
@@ -13,18 +13,20 @@
  */
 package com.mysema.codegen;
 
-import javax.tools.JavaFileObject;
 import javax.tools.StandardLocation;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -52,17 +54,20 @@ import org.eclipse.jdt.internal.compiler.tool.EclipseFileManager;
  */
 public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
     
-    private final MemFileManager fileManager;
-    
     private final ClassLoader parentClassLoader;
     
-    private final List<String> problemList = Lists.newArrayList();
-    
     private final CompilerOptions compilerOptions;
+
+    // lookups in the parent class loader, shared between compilations
+    private final ConcurrentMap<String, Optional<ClassFileReader>> parentTypes =
+            new ConcurrentHashMap<String, Optional<ClassFileReader>>();
+
+    private final ConcurrentMap<String, Boolean> parentClasses = new ConcurrentHashMap<String, Boolean>();
     
     public static CompilerOptions getDefaultCompilerOptions() {
         String javaSpecVersion = System.getProperty("java.specification.version");
-        if (javaSpecVersion.equals("1.8")) {
+        // levels ECJ doesn't know would fall back to 1.3, which has no autoboxing
+        if (javaSpecVersion.equals("1.8") || CompilerOptions.versionToJdkLevel(javaSpecVersion) == 0) {
             javaSpecVersion = "1.7";
         }
         Map<String, Object> settings = Maps.newHashMap();
@@ -83,15 +88,28 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
         this.compilerOptions = compilerOptions;
     }
 
+    // compilations only share thread-safe state, so they can run concurrently
     protected void compile(String source, ClassType projectionType, String[] names, Type[] types,
             String id, Map<String, Object> constants) throws IOException {
         // create source
         source = createSource(source, projectionType, names, types, id, constants);
 
         // compile
+        compileSources(Collections.singletonMap(id, source));
+    }
+
+    @Override
+    protected void compile(Map<String, EvaluatorSpec> specs) throws IOException {
+        Map<String, String> sources = Maps.newLinkedHashMap();
+        for (Map.Entry<String, EvaluatorSpec> entry : specs.entrySet()) {
+            sources.put(entry.getKey(), createSource(entry.getKey(), entry.getValue()));
+        }
+        compileSources(sources);
+    }
+
+    private ICompilationUnit createCompilationUnit(final String targetName, String source) {
         final char[] targetContents = source.toCharArray();
-        final String targetName = id;
-        final ICompilationUnit[] targetCompilationUnits = new ICompilationUnit[] { new ICompilationUnit() {
+        return new ICompilationUnit() {
             @Override
             public char[] getContents() {
                 return targetContents;
@@ -125,7 +143,16 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
             public boolean ignoreOptionalProblems() {
                 return true;
             }
-        } };
+        };
+    }
+
+    private void compileSources(Map<String, String> sources) throws IOException {
+        final Map<String, ICompilationUnit> targets = Maps.newLinkedHashMap();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            targets.put(entry.getKey(), createCompilationUnit(entry.getKey(), entry.getValue()));
+        }
+        final ICompilationUnit[] targetCompilationUnits = targets.values().toArray(
+                new ICompilationUnit[targets.size()]);
         
         INameEnvironment env = new INameEnvironment() {
 
@@ -156,8 +183,8 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
                     return false;
                 }                    
                 
-                // if it's the class we're compiling, then of course it's a class
-                if (result.equals(targetName)) {
+                // if it's a class we're compiling, then of course it's a class
+                if (targets.containsKey(result)) {
                     return true; 
                 }
                 InputStream is = null;
@@ -166,14 +193,9 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
                     is = loader.getResourceAsStream(result);
                     if (is == null) {
                         // use our normal class loader now...
-                        String resourceName = result.replace('.', '/') + ".class";
-                        is = parentClassLoader.getResourceAsStream(resourceName);
-                        if (is == null && !result.contains(".")) {
-                            // we couldn't find the class, and it has no package; is it a core class?
-                            is = parentClassLoader.getResourceAsStream("java/lang/" + resourceName);
-                        }
+                        return isParentClass(result);
                     }
-                    return is != null;   
+                    return true;
                 } finally {
                     if (is != null) {
                         try {
@@ -203,19 +225,20 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
                 String resourceName = className.replace('.', '/') + ".class";
                 InputStream is = null;
                 try {
-                    // we're only asking ECJ to compile a single class; we shouldn't need this
-                    if (className.equals(targetName)) {
-                        return new NameEnvironmentAnswer(targetCompilationUnits[0], null);
+                    // one of the classes we're compiling
+                    if (targets.containsKey(className)) {
+                        return new NameEnvironmentAnswer(targets.get(className), null);
                     }
                     
                     is = loader.getResourceAsStream(resourceName);
-                    if (is == null) {
-                        is = parentClassLoader.getResourceAsStream(resourceName);
-                    }
-                    
                     if (is != null) {
                         ClassFileReader cfr = new ClassFileReader(ByteStreams.toByteArray(is), className.toCharArray(), true);
                         return new NameEnvironmentAnswer(cfr, null);
+                    }
+
+                    ClassFileReader cfr = findParentType(className);
+                    if (cfr != null) {
+                        return new NameEnvironmentAnswer(cfr, null);
                     } else {
                         return null;
                     }
@@ -234,6 +257,10 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
             }
         };
         
+        // per compilation state
+        final List<String> problemList = Lists.newArrayList();
+        final Map<String, byte[]> classFiles = Maps.newLinkedHashMap();
+
         ICompilerRequestor requestor = new ICompilerRequestor() {
 
             @Override
@@ -246,22 +273,12 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
                     }
                 } else {                    
                     for (ClassFile clazz: result.getClassFiles()) {
-                        try {
-                            MemJavaFileObject jfo = (MemJavaFileObject) fileManager
-                                    .getJavaFileForOutput(StandardLocation.CLASS_OUTPUT, 
-                                            new String(clazz.fileName()), JavaFileObject.Kind.CLASS, null);
-                            OutputStream os = jfo.openOutputStream();
-                            os.write(clazz.getBytes());
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
+                        classFiles.put(new String(clazz.fileName()), clazz.getBytes());
                     }
                 }
             }
         };
         
-        problemList.clear();
-
         IErrorHandlingPolicy policy = DefaultErrorHandlingPolicies.exitAfterAllProblems();
         IProblemFactory problemFactory = new DefaultProblemFactory(Locale.getDefault());
 
@@ -274,8 +291,11 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
                 for (String problem: problemList) {
                     sb.append("\t").append(problem).append("\n");
                 }
-                throw new CodegenException("Compilation of " + id + " failed:\n" + source + "\n" + sb.toString());            
-            }            
+                throw new CodegenException("Compilation of " + Joiner.on(", ").join(sources.keySet())
+                        + " failed:\n" + Joiner.on("\n").join(sources.values()) + "\n" + sb.toString());            
+            }
+            // the classes of a compilation are written together, into the same generation
+            fileManager.writeClasses(classFiles);
         } catch (RuntimeException ex) {
             // if we encountered an IOException, unbox and throw it;
             // if we encountered a ClassFormatException, box it as an IOException and throw it
@@ -293,6 +313,67 @@ public class ECJEvaluatorFactory extends AbstractEvaluatorFactory {
         } 
     }
 
+    /**
+     * Find the given type in the parent class loader. Parsed classes and misses are cached,
+     * since the parent classes don't change.
+     * 
+     * @param className
+     * @return class file reader or null, if not found
+     */
+    private ClassFileReader findParentType(String className) throws IOException, ClassFormatException {
+        Optional<ClassFileReader> type = parentTypes.get(className);
+        if (type == null) {
+            InputStream is = parentClassLoader.getResourceAsStream(className.replace('.', '/') + ".class");
+            if (is != null) {
+                try {
+                    type = Optional.of(new ClassFileReader(ByteStreams.toByteArray(is), className.toCharArray(), true));
+                } finally {
+                    is.close();
+                }
+            } else {
+                type = Optional.absent();
+            }
+            parentTypes.put(className, type);
+            if (type.isPresent()) {
+                parentClasses.put(className, Boolean.TRUE);
+            }
+        }
+        return type.orNull();
+    }
+
+    /**
+     * Check whether the given name is a class of the parent class loader. Both hits and
+     * misses are cached, which also covers the package lookups.
+     * 
+     * @param name
+     * @return true, if it's a class
+     */
+    private boolean isParentClass(String name) {
+        Boolean isClass = parentClasses.get(name);
+        if (isClass == null) {
+            String resourceName = name.replace('.', '/') + ".class";
+            isClass = exists(resourceName);
+            if (!isClass && !name.contains(".")) {
+                // we couldn't find the class, and it has no package; is it a core class?
+                isClass = exists("java/lang/" + resourceName);
+            }
+            parentClasses.put(name, isClass);
+        }
+        return isClass;
+    }
+
+    private boolean exists(String resourceName) {
+        InputStream is = parentClassLoader.getResourceAsStream(resourceName);
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ex) {}
+            return true;
+        } else {
+            return false;
+        }
+    }
+
     public CompilerOptions getCompilerOptions() {
         return compilerOptions;
     }
@@ -28,6 +28,33 @@ public interface Evaluator<T> {
      */
     T evaluate(Object... args);
 
+    /**
+     * Evaluate with a single argument without allocating an argument array
+     * 
+     * @param a
+     * @return
+     */
+    T evaluate(Object a);
+
+    /**
+     * Evaluate with two arguments without allocating an argument array
+     * 
+     * @param a
+     * @param b
+     * @return
+     */
+    T evaluate(Object a, Object b);
+
+    /**
+     * Evaluate with three arguments without allocating an argument array
+     * 
+     * @param a
+     * @param b
+     * @param c
+     * @return
+     */
+    T evaluate(Object a, Object b, Object c);
+
     /**
      * @return
      */
@@ -13,8 +13,10 @@
  */
 package com.mysema.codegen;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.mysema.codegen.model.ClassType;
 import com.mysema.codegen.model.Type;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -52,5 +54,96 @@ public interface EvaluatorFactory {
      */
     <T> Evaluator<T> createEvaluator(String source, ClassType projection, String[] names, 
             Type[] types, Class<?>[] classes, Map<String, Object> constants);
+
+    /**
+     * Create a new Evaluator instance asynchronously. Cached evaluators are returned 
+     * immediately, other ones are compiled in the background.
+     * 
+     * @param source
+     * @param projectionType
+     * @param names
+     * @param classes
+     * @param constants
+     * @return
+     */
+    <T> ListenableFuture<Evaluator<T>> createEvaluatorAsync(String source, 
+            Class<? extends T> projectionType, String[] names, Class<?>[] classes, 
+            Map<String, Object> constants);
+
+    /**
+     * Create a new Evaluator instance asynchronously. Cached evaluators are returned 
+     * immediately, other ones are compiled in the background.
+     * 
+     * @param source
+     * @param projection
+     * @param names
+     * @param types
+     * @param classes
+     * @param constants
+     * @return
+     */
+    <T> ListenableFuture<Evaluator<T>> createEvaluatorAsync(String source, ClassType projection, 
+            String[] names, Type[] types, Class<?>[] classes, Map<String, Object> constants);
+
+    /**
+     * Create Evaluator instances for the given specs. Classes which are not yet available
+     * are compiled together.
+     *
+     * @param specs
+     * @return evaluators in the order of the specs
+     */
+    List<Evaluator<?>> createEvaluators(List<EvaluatorSpec> specs);
+
+    /**
+     * Create a new Evaluator for an expression of type int, which returns the result
+     * without boxing
+     * 
+     * @param source
+     * @param names
+     * @param classes
+     * @param constants
+     * @return
+     */
+    IntEvaluator createIntEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants);
+
+    /**
+     * Create a new Evaluator for an expression of type long, which returns the result
+     * without boxing
+     * 
+     * @param source
+     * @param names
+     * @param classes
+     * @param constants
+     * @return
+     */
+    LongEvaluator createLongEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants);
+
+    /**
+     * Create a new Evaluator for an expression of type double, which returns the result
+     * without boxing
+     * 
+     * @param source
+     * @param names
+     * @param classes
+     * @param constants
+     * @return
+     */
+    DoubleEvaluator createDoubleEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants);
+
+    /**
+     * Create a new Evaluator for an expression of type boolean, which returns the result
+     * without boxing
+     * 
+     * @param source
+     * @param names
+     * @param classes
+     * @param constants
+     * @return
+     */
+    BooleanEvaluator createBooleanEvaluator(String source, String[] names, Class<?>[] classes,
+            Map<String, Object> constants);
     
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.Collection;
+
+/**
+ * EvaluatorFactoryListener receives the compile, cache and class loading events of an
+ * {@link AbstractEvaluatorFactory}. Implementations are called from concurrent threads
+ * and need to be thread-safe.
+ *
+ * @author tiwe
+ *
+ */
+public interface EvaluatorFactoryListener {
+
+    /**
+     * Called after the source of a class has been generated
+     *
+     * @param id class name
+     * @param nanos duration in nanoseconds
+     */
+    void sourceGenerated(String id, long nanos);
+
+    /**
+     * Called after a compiler invocation
+     *
+     * @param ids names of the compiled classes
+     * @param nanos duration in nanoseconds
+     * @param success false, if the compilation failed
+     */
+    void compiled(Collection<String> ids, long nanos, boolean success);
+
+    /**
+     * Called after a compiled class has been loaded
+     *
+     * @param id class name
+     * @param nanos duration in nanoseconds
+     * @param size bytecode size of the class and its nested classes
+     */
+    void classDefined(String id, long nanos, int size);
+
+    /**
+     * Called when an evaluator class is found in the cache
+     */
+    void cacheHit();
+
+    /**
+     * Called when an evaluator class is not found in the cache
+     *
+     * @param id class name
+     */
+    void cacheMiss(String id);
+
+    /**
+     * Called when an evaluator class has been evicted from the cache
+     *
+     * @param id class name
+     */
+    void cacheEviction(String id);
+
+}
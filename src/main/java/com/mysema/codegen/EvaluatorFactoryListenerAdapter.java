@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.Collection;
+
+/**
+ * EvaluatorFactoryListenerAdapter is a no-op implementation of the
+ * {@link EvaluatorFactoryListener} interface
+ *
+ * @author tiwe
+ *
+ */
+public class EvaluatorFactoryListenerAdapter implements EvaluatorFactoryListener {
+
+    @Override
+    public void sourceGenerated(String id, long nanos) {
+    }
+
+    @Override
+    public void compiled(Collection<String> ids, long nanos, boolean success) {
+    }
+
+    @Override
+    public void classDefined(String id, long nanos, int size) {
+    }
+
+    @Override
+    public void cacheHit() {
+    }
+
+    @Override
+    public void cacheMiss(String id) {
+    }
+
+    @Override
+    public void cacheEviction(String id) {
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * EvaluatorFactoryMetrics is an {@link EvaluatorFactoryListener} implementation, which
+ * collects counters and histograms of the events
+ *
+ * @author tiwe
+ *
+ */
+public class EvaluatorFactoryMetrics implements EvaluatorFactoryListener {
+
+    /**
+     * Histogram is a lock free histogram with power of two buckets
+     */
+    public static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong total = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        void update(long value) {
+            value = Math.max(value, 0);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotal() {
+            return total.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long c = count.get();
+            return c > 0 ? (double) total.get() / c : 0.0;
+        }
+
+        /**
+         * @param quantile quantile between 0.0 and 1.0
+         * @return upper bound of the bucket, which contains the quantile
+         */
+        public long getQuantile(double quantile) {
+            long c = count.get();
+            if (c == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * c);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return i == 0 ? 0 : Math.min((1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", mean=" + (long) getMean() + ", p99="
+                    + getQuantile(0.99) + ", max=" + getMax();
+        }
+
+    }
+
+    private final Histogram sourceGenerationTime = new Histogram();
+
+    private final Histogram compileTime = new Histogram();
+
+    private final Histogram defineTime = new Histogram();
+
+    private final Histogram classSize = new Histogram();
+
+    private final AtomicLong compilations = new AtomicLong();
+
+    private final AtomicLong compileFailures = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    private final AtomicLong cacheEvictions = new AtomicLong();
+
+    @Override
+    public void sourceGenerated(String id, long nanos) {
+        sourceGenerationTime.update(nanos);
+    }
+
+    @Override
+    public void compiled(Collection<String> ids, long nanos, boolean success) {
+        compileTime.update(nanos);
+        if (success) {
+            compilations.addAndGet(ids.size());
+        } else {
+            compileFailures.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void classDefined(String id, long nanos, int size) {
+        defineTime.update(nanos);
+        classSize.update(size);
+    }
+
+    @Override
+    public void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void cacheMiss(String id) {
+        cacheMisses.incrementAndGet();
+    }
+
+    @Override
+    public void cacheEviction(String id) {
+        cacheEvictions.incrementAndGet();
+    }
+
+    /**
+     * @return source generation times in nanoseconds
+     */
+    public Histogram getSourceGenerationTime() {
+        return sourceGenerationTime;
+    }
+
+    /**
+     * @return compiler invocation times in nanoseconds
+     */
+    public Histogram getCompileTime() {
+        return compileTime;
+    }
+
+    /**
+     * @return class loading times in nanoseconds
+     */
+    public Histogram getDefineTime() {
+        return defineTime;
+    }
+
+    /**
+     * @return bytecode sizes of the loaded classes in bytes
+     */
+    public Histogram getClassSize() {
+        return classSize;
+    }
+
+    /**
+     * @return amount of successfully compiled classes
+     */
+    public long getCompilations() {
+        return compilations.get();
+    }
+
+    /**
+     * @return amount of failed compiler invocations
+     */
+    public long getCompileFailures() {
+        return compileFailures.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "compilations=" + getCompilations() + ", compileFailures=" + getCompileFailures()
+                + ", cacheHits=" + getCacheHits() + ", cacheMisses=" + getCacheMisses()
+                + ", cacheEvictions=" + getCacheEvictions() + ", compileTime=[" + compileTime
+                + "], defineTime=[" + defineTime + "], classSize=[" + classSize + "]";
+    }
+
+}
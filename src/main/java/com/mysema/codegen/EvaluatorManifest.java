@@ -0,0 +1,284 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.model.TypeExtends;
+import com.mysema.codegen.model.TypeSuper;
+
+/**
+ * EvaluatorManifest is a list of evaluator specs, which can be written to and read from
+ * a text file, so that the evaluators a process used can be precompiled by the next one.
+ *
+ * <p>The format is line based. Each spec is written as</p>
+ *
+ * <pre>
+ * evaluator
+ * projection java.util.List&lt;java.lang.String&gt;
+ * arg a java.lang.String
+ * constant c java.lang.Integer
+ * source return java.util.Collections.nCopies(c, a);
+ * end
+ * </pre>
+ *
+ * <p>Types are written with their fully qualified generic names. Backslashes, carriage
+ * returns and line feeds of the source are escaped as <code>\\</code>, <code>\r</code>
+ * and <code>\n</code>.</p>
+ *
+ * @author tiwe
+ *
+ */
+public final class EvaluatorManifest {
+
+    private static final String HEADER = "# codegen evaluator manifest 1";
+
+    private static final Set<String> NO_IMPORTS = Collections.emptySet();
+
+    private static final Map<String, Class<?>> PRIMITIVES = ImmutableMap.<String, Class<?>>builder()
+            .put("boolean", boolean.class).put("byte", byte.class).put("char", char.class)
+            .put("short", short.class).put("int", int.class).put("long", long.class)
+            .put("float", float.class).put("double", double.class).put("void", void.class)
+            .build();
+
+    // keyed by the serialized form to skip duplicates
+    private final Map<String, EvaluatorSpec> specs = new LinkedHashMap<String, EvaluatorSpec>();
+
+    /**
+     * Add the given spec, duplicates are ignored
+     *
+     * @param spec
+     */
+    public synchronized void add(EvaluatorSpec spec) {
+        String record = toRecord(spec);
+        if (!specs.containsKey(record)) {
+            specs.put(record, spec);
+        }
+    }
+
+    public synchronized List<EvaluatorSpec> getSpecs() {
+        return new ArrayList<EvaluatorSpec>(specs.values());
+    }
+
+    public synchronized int size() {
+        return specs.size();
+    }
+
+    /**
+     * Write the specs to the given writer
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void write(Writer writer) throws IOException {
+        List<String> records;
+        synchronized (this) {
+            records = new ArrayList<String>(specs.keySet());
+        }
+        writer.write(HEADER);
+        writer.write('\n');
+        for (String record : records) {
+            writer.write(record);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Read a manifest from the given reader
+     *
+     * @param reader
+     * @param classLoader class loader for the types of the specs
+     * @return manifest
+     * @throws IOException
+     */
+    public static EvaluatorManifest read(Reader reader, ClassLoader classLoader)
+            throws IOException {
+        EvaluatorManifest manifest = new EvaluatorManifest();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        ClassType projection = null;
+        List<String> names = new ArrayList<String>();
+        List<Type> types = new ArrayList<Type>();
+        Map<String, Type> constantTypes = new LinkedHashMap<String, Type>();
+        String source = null;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String keyword = space > -1 ? line.substring(0, space) : line;
+            String value = space > -1 ? line.substring(space + 1) : "";
+            if (keyword.equals("evaluator")) {
+                projection = null;
+                names.clear();
+                types.clear();
+                constantTypes.clear();
+                source = null;
+            } else if (keyword.equals("projection")) {
+                projection = parseType(value, classLoader);
+            } else if (keyword.equals("arg") || keyword.equals("constant")) {
+                int split = value.indexOf(' ');
+                if (split < 0) {
+                    throw new IOException("Invalid " + keyword + " at line " + lineNumber);
+                }
+                String name = value.substring(0, split);
+                ClassType type = parseType(value.substring(split + 1), classLoader);
+                if (keyword.equals("arg")) {
+                    names.add(name);
+                    types.add(type);
+                } else {
+                    constantTypes.put(name, type);
+                }
+            } else if (keyword.equals("source")) {
+                source = unescape(value);
+            } else if (keyword.equals("end")) {
+                if (projection == null || source == null) {
+                    throw new IOException("Incomplete evaluator at line " + lineNumber);
+                }
+                manifest.add(new EvaluatorSpec(source, projection,
+                        names.toArray(new String[names.size()]),
+                        types.toArray(new Type[types.size()]),
+                        new LinkedHashMap<String, Type>(constantTypes)));
+            } else {
+                throw new IOException("Unknown keyword " + keyword + " at line " + lineNumber);
+            }
+        }
+        return manifest;
+    }
+
+    private static String toRecord(EvaluatorSpec spec) {
+        StringBuilder record = new StringBuilder("evaluator\n");
+        record.append("projection ").append(toString(spec.getProjection())).append('\n');
+        for (int i = 0; i < spec.getNames().length; i++) {
+            record.append("arg ").append(spec.getNames()[i]).append(' ');
+            record.append(toString(spec.getTypes()[i])).append('\n');
+        }
+        for (Map.Entry<String, Type> entry : spec.getConstantTypes().entrySet()) {
+            record.append("constant ").append(entry.getKey()).append(' ');
+            record.append(toString(entry.getValue())).append('\n');
+        }
+        record.append("source ").append(escape(spec.getSource())).append('\n');
+        return record.append("end\n").toString();
+    }
+
+    private static String toString(Type type) {
+        return type.getGenericName(true, NO_IMPORTS, NO_IMPORTS);
+    }
+
+    private static String escape(String source) {
+        return source.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Parse a fully qualified generic type name such as
+     * <code>java.util.Map&lt;java.lang.String, java.util.List&lt;? extends java.lang.Number&gt;&gt;</code>
+     *
+     * @return type
+     */
+    static ClassType parseType(String name, ClassLoader classLoader) throws IOException {
+        name = name.trim();
+        if (name.endsWith("[]")) {
+            ClassType component = parseType(name.substring(0, name.length() - 2), classLoader);
+            Class<?> arrayClass = Array.newInstance(component.getJavaClass(), 0).getClass();
+            return new ClassType(TypeCategory.ARRAY, arrayClass);
+        }
+        List<Type> parameters = new ArrayList<Type>();
+        String rawName = name;
+        int start = name.indexOf('<');
+        if (start > -1) {
+            rawName = name.substring(0, start);
+            int depth = 0;
+            int from = start + 1;
+            for (int i = from; i < name.length() - 1; i++) {
+                char c = name.charAt(i);
+                if (c == '<') {
+                    depth++;
+                } else if (c == '>') {
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    parameters.add(parseParameter(name.substring(from, i), classLoader));
+                    from = i + 1;
+                }
+            }
+            parameters.add(parseParameter(name.substring(from, name.length() - 1), classLoader));
+        }
+        return new ClassType(TypeCategory.SIMPLE, loadClass(rawName, classLoader), parameters);
+    }
+
+    /**
+     * @return type parameter or null for unbounded wildcards
+     */
+    private static Type parseParameter(String name, ClassLoader classLoader) throws IOException {
+        name = name.trim();
+        if (name.equals("?")) {
+            return null;
+        } else if (name.startsWith("? extends ")) {
+            return new TypeExtends(parseType(name.substring("? extends ".length()), classLoader));
+        } else if (name.startsWith("? super ")) {
+            return new TypeSuper(parseType(name.substring("? super ".length()), classLoader));
+        } else {
+            return parseType(name, classLoader);
+        }
+    }
+
+    private static Class<?> loadClass(String name, ClassLoader classLoader) throws IOException {
+        if (PRIMITIVES.containsKey(name)) {
+            return PRIMITIVES.get(name);
+        }
+        // member classes are written with dots, try the enclosing class candidates
+        String binaryName = name;
+        while (true) {
+            try {
+                return Class.forName(binaryName, false, classLoader);
+            } catch (ClassNotFoundException e) {
+                int dot = binaryName.lastIndexOf('.');
+                if (dot < 0) {
+                    throw new IOException("Class " + name + " not found", e);
+                }
+                binaryName = binaryName.substring(0, dot) + "$" + binaryName.substring(dot + 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.support.ClassUtils;
+
+/**
+ * EvaluatorSpec contains the arguments of a single Evaluator creation. Specs read from
+ * an {@link EvaluatorManifest} contain only the constant types, they can be compiled, but
+ * not instantiated.
+ * 
+ * @author tiwe
+ *
+ */
+public final class EvaluatorSpec {
+
+    private final String source;
+
+    private final ClassType projection;
+
+    private final String[] names;
+
+    private final Type[] types;
+
+    private final Class<?>[] classes;
+
+    private final Map<String, Object> constants;
+
+    private Map<String, Type> constantTypes;
+
+    public EvaluatorSpec(String source, Class<?> projectionType, String[] names,
+            Class<?>[] classes, Map<String, Object> constants) {
+        this(source, new ClassType(TypeCategory.SIMPLE, projectionType), names, toTypes(classes),
+                classes, constants);
+    }
+
+    public EvaluatorSpec(String source, ClassType projection, String[] names, Type[] types,
+            Class<?>[] classes, Map<String, Object> constants) {
+        this.source = source;
+        this.projection = projection;
+        this.names = names;
+        this.types = types;
+        this.classes = classes;
+        this.constants = constants;
+    }
+
+    public EvaluatorSpec(String source, ClassType projection, String[] names, Type[] types,
+            Map<String, Type> constantTypes) {
+        this.source = source;
+        this.projection = projection;
+        this.names = names;
+        this.types = types;
+        this.classes = new Class<?>[types.length];
+        for (int i = 0; i < types.length; i++) {
+            classes[i] = types[i].getJavaClass();
+        }
+        this.constants = null;
+        this.constantTypes = constantTypes;
+    }
+
+    private static Type[] toTypes(Class<?>[] classes) {
+        Type[] types = new Type[classes.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new ClassType(TypeCategory.SIMPLE, classes[i]);
+        }
+        return types;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public ClassType getProjection() {
+        return projection;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public Type[] getTypes() {
+        return types;
+    }
+
+    public Class<?>[] getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return constant values or null, if the spec contains only the constant types
+     */
+    public Map<String, Object> getConstants() {
+        return constants;
+    }
+
+    public Map<String, Type> getConstantTypes() {
+        // created on demand, since cache hits don't need them
+        if (constantTypes == null) {
+            Map<String, Type> types = new LinkedHashMap<String, Type>();
+            for (Map.Entry<String, Object> entry : constants.entrySet()) {
+                types.put(entry.getKey(), new ClassType(TypeCategory.SIMPLE,
+                        ClassUtils.normalize(entry.getValue().getClass())));
+            }
+            constantTypes = types;
+        }
+        return constantTypes;
+    }
+
+}
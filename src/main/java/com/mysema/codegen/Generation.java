@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardLocation;
+
+/**
+ * Generation is a segment of compiled classes with its own class loader. Once
+ * a generation is discarded, its classes can be unloaded together with the loader.
+ *
+ * @author tiwe
+ *
+ */
+final class Generation {
+
+    static final LocationAndKind CLASS_KEY = new LocationAndKind(
+            StandardLocation.CLASS_OUTPUT, Kind.CLASS);
+
+    private final int number;
+
+    private final Map<String, JavaFileObject> classes = new ConcurrentHashMap<String, JavaFileObject>();
+
+    private final MemClassLoader classLoader;
+
+    // guarded by the owning MemFileManager
+    int liveCount, pinCount;
+
+    // top level classes counted towards the generation size, guarded likewise
+    private final Set<String> countedClasses = new HashSet<String>();
+
+    Generation(int number, ClassLoader parent, ByteStorage byteStorage) {
+        this.number = number;
+        ConcurrentMap<LocationAndKind, Map<String, JavaFileObject>> fileSystem =
+                new ConcurrentHashMap<LocationAndKind, Map<String, JavaFileObject>>();
+        fileSystem.put(CLASS_KEY, classes);
+        this.classLoader = new MemClassLoader(parent, fileSystem);
+        this.classLoader.setByteStorage(byteStorage);
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public Map<String, JavaFileObject> getClasses() {
+        return classes;
+    }
+
+    public MemClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Count the given class towards the generation size
+     *
+     * @param className binary name of the top level class
+     * @return amount of counted classes
+     */
+    int count(String className) {
+        countedClasses.add(className);
+        return countedClasses.size();
+    }
+
+    public boolean contains(String className) {
+        return classes.containsKey(className);
+    }
+
+    /**
+     * Get the class file of the given class for a definition outside of the generation's
+     * class loader. The content is moved to the byte storage of the loader afterwards.
+     *
+     * @param className binary name of the class
+     * @return class file or null, if the class isn't available
+     */
+    public byte[] getClassFile(String className) {
+        MemJavaFileObject jfo = (MemJavaFileObject) classes.get(className);
+        if (jfo == null) {
+            return null;
+        }
+        byte[] bytes = jfo.getByteArray();
+        jfo.store(classLoader.getByteStorage());
+        return bytes;
+    }
+
+    /**
+     * @param className binary name of the top level class
+     * @return true, if the class has nested classes
+     */
+    public boolean hasNestedClasses(String className) {
+        String nestedPrefix = className + "$";
+        for (String name : classes.keySet()) {
+            if (name.startsWith(nestedPrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param className binary name of the top level class
+     * @return size of the class and its nested classes in bytes
+     */
+    public int getSize(String className) {
+        String nestedPrefix = className + "$";
+        int size = 0;
+        for (Map.Entry<String, JavaFileObject> entry : classes.entrySet()) {
+            String name = entry.getKey();
+            if (name.equals(className) || name.startsWith(nestedPrefix)) {
+                size += ((MemJavaFileObject) entry.getValue()).getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return total size of the classes in bytes
+     */
+    public long getSize() {
+        long size = 0;
+        for (JavaFileObject jfo : classes.values()) {
+            size += ((MemJavaFileObject) jfo).getSize();
+        }
+        return size;
+    }
+
+    void clear() {
+        classes.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "Generation " + number;
+    }
+
+}
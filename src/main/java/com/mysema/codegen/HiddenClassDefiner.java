@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen;
+
+import static com.mysema.codegen.ClassFileWriter.*;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import com.mysema.codegen.ClassFileWriter.Code;
+
+/**
+ * HiddenClassDefiner defines evaluator classes as hidden classes via
+ * <code>MethodHandles.Lookup.defineHiddenClass</code>, which is available since Java 15.
+ * Hidden classes aren't registered in their class loader, so each of them can be
+ * unloaded as soon as it isn't reachable anymore.
+ *
+ * <p>The API is accessed via reflection, so that the library still runs on older
+ * runtimes.</p>
+ *
+ * @author tiwe
+ *
+ */
+final class HiddenClassDefiner {
+
+    // hidden classes belong to the package of the lookup class, which is the default package
+    private static final String ANCHOR_NAME = "Q_Lookup";
+
+    private static final Method DEFINE_HIDDEN_CLASS, LOOKUP_CLASS;
+
+    private static final Object NO_OPTIONS;
+
+    static {
+        Method defineHiddenClass = null, lookupClass = null;
+        Object noOptions = null;
+        try {
+            Class<?> lookup = Class.forName("java.lang.invoke.MethodHandles$Lookup");
+            Class<?> classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            noOptions = Array.newInstance(classOption, 0);
+            defineHiddenClass = lookup.getMethod("defineHiddenClass", byte[].class, boolean.class,
+                    noOptions.getClass());
+            lookupClass = lookup.getMethod("lookupClass");
+        } catch (ClassNotFoundException e) {
+            defineHiddenClass = null;
+        } catch (NoSuchMethodException e) {
+            defineHiddenClass = null;
+        }
+        DEFINE_HIDDEN_CLASS = defineHiddenClass;
+        LOOKUP_CLASS = lookupClass;
+        NO_OPTIONS = noOptions;
+    }
+
+    /**
+     * @return true, if the runtime supports hidden classes
+     */
+    static boolean isSupported() {
+        return DEFINE_HIDDEN_CLASS != null;
+    }
+
+    private static final class AnchorClassLoader extends ClassLoader {
+
+        AnchorClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+    private final Object lookup;
+
+    /**
+     * @param parent class loader, which resolves the classes referenced by the hidden classes
+     */
+    HiddenClassDefiner(ClassLoader parent) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Hidden classes require Java 15 or later");
+        }
+        // public final class Q_Lookup { public static Object lookup() { return MethodHandles.lookup(); } }
+        ClassFileWriter writer = new ClassFileWriter(ACC_PUBLIC | ACC_FINAL | ACC_SUPER,
+                ANCHOR_NAME, "java/lang/Object", null);
+        Code code = writer.method(ACC_PUBLIC | ACC_STATIC, "lookup", "()Ljava/lang/Object;", 0);
+        code.invoke(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        code.op(ARETURN, -1);
+        Class<?> anchor = new AnchorClassLoader(parent).define(ANCHOR_NAME, writer.toByteArray());
+        try {
+            lookup = anchor.getMethod("lookup").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new CodegenException(e);
+        } catch (IllegalAccessException e) {
+            throw new CodegenException(e);
+        } catch (InvocationTargetException e) {
+            throw new CodegenException(e.getCause());
+        }
+    }
+
+    /**
+     * Define the given class file as a hidden class and initialize it
+     *
+     * @param bytes class file of a top level class in the default package
+     * @return defined class
+     */
+    Class<?> define(byte[] bytes) {
+        try {
+            Object hiddenLookup = DEFINE_HIDDEN_CLASS.invoke(lookup, bytes, true, NO_OPTIONS);
+            return (Class<?>) LOOKUP_CLASS.invoke(hiddenLookup);
+        } catch (IllegalAccessException e) {
+            throw new CodegenException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new CodegenException(cause);
+            }
+        }
+    }
+
+}
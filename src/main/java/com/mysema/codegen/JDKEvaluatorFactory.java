@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -24,7 +25,7 @@ import java.util.Map;
 
 import javax.tools.JavaCompiler;
 import javax.tools.JavaCompiler.CompilationTask;
-import javax.tools.SimpleJavaFileObject;
+import javax.tools.JavaFileObject;
 import javax.tools.StandardLocation;
 import javax.tools.ToolProvider;
 
@@ -39,8 +40,6 @@ import com.mysema.codegen.model.Type;
  */
 public class JDKEvaluatorFactory extends AbstractEvaluatorFactory {
 
-    private final MemFileManager fileManager;
-
     private final String classpath;
 
     private final List<String> compilationOptions;
@@ -51,6 +50,27 @@ public class JDKEvaluatorFactory extends AbstractEvaluatorFactory {
         this(parent, ToolProvider.getSystemJavaCompiler());
     }
 
+    /**
+     * Create a factory, which serves the class path of the compiler from the given class
+     * loader via a {@link ClassLoaderFileManager}. Unlike with a URLClassLoader no file
+     * system class path is needed.
+     * 
+     * @param parent
+     */
+    public JDKEvaluatorFactory(ClassLoader parent) {
+        this(parent, ToolProvider.getSystemJavaCompiler());
+    }
+
+    public JDKEvaluatorFactory(ClassLoader parent, JavaCompiler compiler) {
+        this.fileManager = new MemFileManager(parent, new ClassLoaderFileManager(parent,
+                compiler.getStandardFileManager(null, null, null)));
+        this.compiler = compiler;
+        this.classpath = null;
+        this.loader = fileManager.getClassLoader(StandardLocation.CLASS_OUTPUT);
+        // annotation processors would be looked up on the default class path
+        this.compilationOptions = Arrays.asList("-g:none", "-proc:none");
+    }
+
     public JDKEvaluatorFactory(URLClassLoader parent, JavaCompiler compiler) {
         this.fileManager = new MemFileManager(parent, compiler.getStandardFileManager(null, null, null));
         this.compiler = compiler;
@@ -59,19 +79,41 @@ public class JDKEvaluatorFactory extends AbstractEvaluatorFactory {
         this.compilationOptions = Arrays.asList("-classpath", classpath, "-g:none");
     }
 
-    protected void compile(String source, ClassType projectionType, String[] names, Type[] types,
+    // the shared file managers are not thread-safe, so compilations are serialized
+    protected synchronized void compile(String source, ClassType projectionType, String[] names, Type[] types,
             String id, Map<String, Object> constants) throws IOException {
         // create source
         source = createSource(source, projectionType, names, types, id, constants);
 
         // compile
-        SimpleJavaFileObject javaFileObject = new MemSourceFileObject(id, source);
-        Writer out = new StringWriter();
+        compile(Collections.singletonList(new MemSourceFileObject(id, source)), source);
+    }
 
+    @Override
+    protected synchronized void compile(Map<String, EvaluatorSpec> specs) throws IOException {
+        List<JavaFileObject> javaFileObjects = new ArrayList<JavaFileObject>(specs.size());
+        StringBuilder sources = new StringBuilder();
+        for (Map.Entry<String, EvaluatorSpec> entry : specs.entrySet()) {
+            String source = createSource(entry.getKey(), entry.getValue());
+            javaFileObjects.add(new MemSourceFileObject(entry.getKey(), source));
+            sources.append(source);
+        }
+        compile(javaFileObjects, sources.toString());
+    }
+
+    private void compile(List<? extends JavaFileObject> javaFileObjects, String source) {
+        Writer out = new StringWriter();
         CompilationTask task = compiler.getTask(out, fileManager, null, compilationOptions, null,
-                Collections.singletonList(javaFileObject));
-        if (!task.call().booleanValue()) {
-            throw new CodegenException("Compilation of " + source + " failed.\n" + out.toString());
+                javaFileObjects);
+        // javac writes the class files one by one, they are kept in one generation
+        fileManager.pinGeneration();
+        try {
+            if (!task.call().booleanValue()) {
+                throw new CodegenException("Compilation of " + source + " failed.\n"
+                        + out.toString());
+            }
+        } finally {
+            fileManager.unpinGeneration();
         }
     }
 
@@ -46,6 +46,8 @@ public final class MemClassLoader extends ClassLoader {
 
     private final Map<LocationAndKind, Map<String, JavaFileObject>> memFileSystem;
 
+    private volatile ByteStorage byteStorage = ByteStorage.HEAP;
+
     public MemClassLoader(ClassLoader parent,
             Map<LocationAndKind, Map<String, JavaFileObject>> ramFileSystem) {
         super(parent);
@@ -56,13 +58,30 @@ public final class MemClassLoader extends ClassLoader {
     protected Class<?> findClass(String name) throws ClassNotFoundException {
         JavaFileObject jfo = memFileSystem.get(CLASS_KEY).get(name);
         if (jfo != null) {
-            byte[] bytes = ((MemJavaFileObject) jfo).getByteArray();
-            return defineClass(name, bytes, 0, bytes.length);
+            MemJavaFileObject mjfo = (MemJavaFileObject) jfo;
+            byte[] bytes = mjfo.getByteArray();
+            Class<?> clazz = defineClass(name, bytes, 0, bytes.length);
+            // the bytes are only needed for lookups now
+            mjfo.store(byteStorage);
+            return clazz;
         } else {
             return super.findClass(name);
         }
     }
 
+    ByteStorage getByteStorage() {
+        return byteStorage;
+    }
+
+    /**
+     * Set the storage of the bytecode of defined classes
+     * 
+     * @param byteStorage
+     */
+    public void setByteStorage(ByteStorage byteStorage) {
+        this.byteStorage = byteStorage;
+    }
+
     @Override
     protected URL findResource(String name) {
         URL retValue = super.findResource(name);
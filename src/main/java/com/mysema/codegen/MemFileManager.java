@@ -14,11 +14,15 @@
 package com.mysema.codegen;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
@@ -32,27 +36,68 @@ import javax.tools.JavaFileObject.Kind;
  * MemFileManager is a memory based implementation of the JavaFileManager
  * interface
  * 
+ * <p>Compiled classes are grouped into generations, each with its own class loader.
+ * By default all classes share a single generation. With a generation size set,
+ * generations whose classes are all released are discarded, so that the classes can
+ * be unloaded.</p>
+ * 
  * @author tiwe
  * 
  */
 public class MemFileManager extends ForwardingJavaFileManager<JavaFileManager> {
 
+    private final ClassLoader parent;
+
     private final ClassLoader classLoader;
 
-    private final Map<LocationAndKind, Map<String, JavaFileObject>> ramFileSystem;
+    private final ConcurrentMap<LocationAndKind, Map<String, JavaFileObject>> ramFileSystem;
+
+    // the files of ramFileSystem by package, so that listings don't scan all files
+    private final ConcurrentMap<LocationAndKind, ConcurrentMap<String, Map<String, JavaFileObject>>> packages =
+            new ConcurrentHashMap<LocationAndKind, ConcurrentMap<String, Map<String, JavaFileObject>>>();
+
+    // newest first
+    private final List<Generation> generations = new CopyOnWriteArrayList<Generation>();
 
     private final String urlPrefix;
 
+    private volatile Generation generation;
+
+    // generation of the running compilation of a thread, see pinGeneration()
+    private final ThreadLocal<Generation> pinnedGeneration = new ThreadLocal<Generation>();
+
+    private int generationSize = -1;
+
+    private volatile ByteStorage byteStorage = ByteStorage.HEAP;
+
+    private long reclaimedBytes;
+
     public MemFileManager(ClassLoader parent, StandardJavaFileManager sjfm) {
-        super(sjfm);
-        ramFileSystem = new HashMap<LocationAndKind, Map<String, JavaFileObject>>();
-        Map<String, JavaFileObject> classLoaderContent = new HashMap<String, JavaFileObject>();
-        ramFileSystem.put(new LocationAndKind(StandardLocation.CLASS_OUTPUT, Kind.CLASS),
-                classLoaderContent);
-        classLoader = new MemClassLoader(parent, ramFileSystem);
+        this(parent, (JavaFileManager) sjfm);
+    }
+
+    /**
+     * @param parent parent class loader of the compiled classes
+     * @param fileManager file manager for the class path and platform classes, e.g. a
+     *        {@link ClassLoaderFileManager}
+     */
+    public MemFileManager(ClassLoader parent, JavaFileManager fileManager) {
+        super(fileManager);
+        this.parent = parent;
+        ramFileSystem = new ConcurrentHashMap<LocationAndKind, Map<String, JavaFileObject>>();
+        startGeneration(0);
+        classLoader = new GenerationsClassLoader(parent);
         urlPrefix = MemFileSystemRegistry.DEFAULT.getUrlPrefix(this);
     }
 
+    private void startGeneration(int number) {
+        generation = new Generation(number, parent, byteStorage);
+        generations.add(0, generation);
+        // new class files are written to the current generation
+        ramFileSystem.put(Generation.CLASS_KEY, generation.getClasses());
+        packages.remove(Generation.CLASS_KEY);
+    }
+
     @Override
     public ClassLoader getClassLoader(JavaFileManager.Location location) {
         return classLoader;
@@ -88,7 +133,13 @@ public class MemFileManager extends ForwardingJavaFileManager<JavaFileManager> {
     @Override
     public JavaFileObject getJavaFileForInput(JavaFileManager.Location location, String className,
             JavaFileObject.Kind kind) throws IOException {
-        throw new UnsupportedOperationException();
+        if (location == StandardLocation.CLASS_OUTPUT) {
+            // newer compilers look up module descriptors in the output
+            Map<String, JavaFileObject> files = ramFileSystem.get(new LocationAndKind(location, kind));
+            return files != null ? files.get(className) : null;
+        } else {
+            return super.getJavaFileForInput(location, className, kind);
+        }
     }
 
     @Override
@@ -97,8 +148,11 @@ public class MemFileManager extends ForwardingJavaFileManager<JavaFileManager> {
         JavaFileObject javaFileObject = null;
         LocationAndKind key = new LocationAndKind(location, kind);
 
-        if (ramFileSystem.containsKey(key)) {
-            javaFileObject = ramFileSystem.get(key).get(name);
+        Generation pinned = pinnedGeneration.get();
+        Map<String, JavaFileObject> files = pinned != null && key.equals(Generation.CLASS_KEY)
+                ? pinned.getClasses() : ramFileSystem.get(key);
+        if (files != null) {
+            javaFileObject = files.get(name);
             if (javaFileObject != null) {
                 return javaFileObject;
             }
@@ -112,6 +166,144 @@ public class MemFileManager extends ForwardingJavaFileManager<JavaFileManager> {
         return javaFileObject;
     }
 
+    /**
+     * Write the given class files to the current generation. The classes are written
+     * together, so that a concurrent start of a new generation doesn't split them.
+     * 
+     * @param classFiles class file bytes by binary name
+     * @throws IOException
+     */
+    synchronized void writeClasses(Map<String, byte[]> classFiles) throws IOException {
+        for (Map.Entry<String, byte[]> entry : classFiles.entrySet()) {
+            JavaFileObject jfo = getJavaFileForOutput(StandardLocation.CLASS_OUTPUT,
+                    entry.getKey(), Kind.CLASS, null);
+            OutputStream os = jfo.openOutputStream();
+            try {
+                os.write(entry.getValue());
+            } finally {
+                os.close();
+            }
+        }
+    }
+
+    /**
+     * Get the size of the compiled class and its nested classes
+     * 
+     * @param className binary name of the top level class
+     * @return size in bytes
+     */
+    public int getClassSize(String className) {
+        Generation g = getGeneration(className);
+        return g != null ? g.getSize(className) : 0;
+    }
+
+    /**
+     * Get the live generation which contains the given class
+     * 
+     * @param className binary name of the top level class
+     * @return generation or null, if the class isn't available
+     */
+    Generation getGeneration(String className) {
+        for (Generation g : generations) {
+            if (g.contains(className)) {
+                return g;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pin the current generation for the compilation of the calling thread. The class
+     * files of the compilation are written to the pinned generation, even if a new one is
+     * started meanwhile, so that a class and its nested classes share one class loader.
+     * Compilers, which write all class files at once, use {@link #writeClasses(Map)}
+     * instead.
+     */
+    synchronized void pinGeneration() {
+        Generation g = generation;
+        g.pinCount++;
+        pinnedGeneration.set(g);
+    }
+
+    /**
+     * Release the generation pinned by {@link #pinGeneration()}
+     */
+    synchronized void unpinGeneration() {
+        Generation g = pinnedGeneration.get();
+        if (g != null) {
+            g.pinCount--;
+            pinnedGeneration.remove();
+        }
+    }
+
+    /**
+     * Mark a class of the given generation as in use. A new generation is started, when
+     * the current one has reached the generation size.
+     * 
+     * @param g generation
+     * @param className binary name of the top level class
+     */
+    synchronized void retain(Generation g, String className) {
+        g.liveCount++;
+        // classes, which are loaded again, are counted once
+        int classCount = g.count(className);
+        if (g == generation && generationSize > 0 && classCount >= generationSize) {
+            startGeneration(g.getNumber() + 1);
+        }
+    }
+
+    /**
+     * Mark a class of the given generation as no longer used. Older generations without
+     * used classes are discarded.
+     * 
+     * @param g generation
+     */
+    synchronized void release(Generation g) {
+        g.liveCount--;
+        if (g.liveCount <= 0 && g.pinCount == 0 && g != generation && generations.remove(g)) {
+            reclaimedBytes += g.getSize();
+            g.clear();
+        }
+    }
+
+    /**
+     * Set the amount of classes per generation. Generations can only be discarded after
+     * a new one has been started. Defaults to a single generation.
+     * 
+     * @param generationSize maximum classes per generation or -1 for a single generation
+     */
+    public synchronized void setGenerationSize(int generationSize) {
+        this.generationSize = generationSize;
+    }
+
+    /**
+     * Set the storage of the bytecode of classes, which have been loaded. Defaults to
+     * {@link ByteStorage#HEAP}, {@link ByteStorage#COMPACT} trims the compiler output
+     * after the class has been defined.
+     * 
+     * @param byteStorage
+     */
+    public synchronized void setByteStorage(ByteStorage byteStorage) {
+        this.byteStorage = byteStorage;
+        for (Generation g : generations) {
+            g.getClassLoader().setByteStorage(byteStorage);
+        }
+    }
+
+    /**
+     * @return the amount of live generations
+     */
+    public int getGenerationCount() {
+        return generations.size();
+    }
+
+    /**
+     * @return total size in bytes of the classes of discarded generations
+     */
+    public synchronized long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
     @Override
     public String inferBinaryName(Location loc, JavaFileObject javaFileObject) {
         String result;
@@ -141,32 +333,99 @@ public class MemFileManager extends ForwardingJavaFileManager<JavaFileManager> {
         }
 
         for (Kind kind : kinds) {
-            LocationAndKind key = new LocationAndKind(location, kind);
-            if (ramFileSystem.containsKey(key)) {
-                Map<String, JavaFileObject> locatedFiles = ramFileSystem.get(key);
-                for (Map.Entry<String, JavaFileObject> entry : locatedFiles.entrySet()) {
-                    String name = entry.getKey();
-                    String packageName = "";
-                    if (name.indexOf('.') > -1) {
-                        packageName = name.substring(0, name.lastIndexOf('.'));
-                    }
-                    if (recurse ? packageName.startsWith(pkg) : packageName.equals(pkg)) {
-                        JavaFileObject candidate = entry.getValue();
-                        if (kinds.contains(candidate.getKind())) {
-                            result.add(candidate);
-                        }
+            Map<String, Map<String, JavaFileObject>> packageFiles = packages.get(
+                    new LocationAndKind(location, kind));
+            if (packageFiles == null) {
+                continue;
+            } else if (recurse) {
+                for (Map.Entry<String, Map<String, JavaFileObject>> entry : packageFiles.entrySet()) {
+                    if (entry.getKey().startsWith(pkg)) {
+                        addFiles(result, entry.getValue().values(), kinds);
                     }
                 }
+            } else if (packageFiles.containsKey(pkg)) {
+                addFiles(result, packageFiles.get(pkg).values(), kinds);
             }
         }
         return result;
     }
 
-    private void register(LocationAndKind key, JavaFileObject javaFileObject) {
-        if (!ramFileSystem.containsKey(key)) {
-            ramFileSystem.put(key, new HashMap<String, JavaFileObject>());
+    private static void addFiles(List<JavaFileObject> result, Iterable<JavaFileObject> files,
+            Set<Kind> kinds) {
+        for (JavaFileObject candidate : files) {
+            if (kinds.contains(candidate.getKind())) {
+                result.add(candidate);
+            }
         }
-        ramFileSystem.get(key).put(javaFileObject.getName(), javaFileObject);
+    }
+
+    private static String getPackageName(String name) {
+        int index = name.lastIndexOf('.');
+        return index > -1 ? name.substring(0, index) : "";
+    }
+
+    // synchronized with the start of generations, so that the index matches the current one
+    private synchronized void register(LocationAndKind key, JavaFileObject javaFileObject) {
+        Generation pinned = pinnedGeneration.get();
+        if (pinned != null && pinned != generation && key.equals(Generation.CLASS_KEY)) {
+            // a new generation has been started, the files of older ones aren't listed
+            pinned.getClasses().put(javaFileObject.getName(), javaFileObject);
+            return;
+        }
+        Map<String, JavaFileObject> files = ramFileSystem.get(key);
+        if (files == null) {
+            files = new ConcurrentHashMap<String, JavaFileObject>();
+            ramFileSystem.put(key, files);
+        }
+        String name = javaFileObject.getName();
+        files.put(name, javaFileObject);
+
+        ConcurrentMap<String, Map<String, JavaFileObject>> packageFiles = packages.get(key);
+        if (packageFiles == null) {
+            packageFiles = new ConcurrentHashMap<String, Map<String, JavaFileObject>>();
+            packages.put(key, packageFiles);
+        }
+        String packageName = getPackageName(name);
+        Map<String, JavaFileObject> filesOfPackage = packageFiles.get(packageName);
+        if (filesOfPackage == null) {
+            filesOfPackage = new ConcurrentHashMap<String, JavaFileObject>();
+            packageFiles.put(packageName, filesOfPackage);
+        }
+        filesOfPackage.put(name, javaFileObject);
+    }
+
+    /**
+     * Class loader view of the live generations, which doesn't define classes itself,
+     * so that it doesn't keep any generation from being unloaded
+     */
+    private final class GenerationsClassLoader extends ClassLoader {
+
+        GenerationsClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            Generation g = getGeneration(name);
+            if (g != null) {
+                return g.getClassLoader().loadClass(name);
+            } else {
+                throw new ClassNotFoundException(name);
+            }
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            for (Generation g : generations) {
+                InputStream is = g.getClassLoader().getResourceAsStream(name);
+                if (is != null) {
+                    return is;
+                }
+            }
+            // like MemClassLoader, only in memory resources are exposed
+            return null;
+        }
+
     }
 
 }
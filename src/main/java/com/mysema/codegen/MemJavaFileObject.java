@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 import javax.tools.SimpleJavaFileObject;
 
@@ -33,7 +34,13 @@ import com.google.common.base.Charsets;
  */
 public class MemJavaFileObject extends SimpleJavaFileObject {
 
-    private ByteArrayOutputStream baos;
+    private volatile ByteArrayOutputStream baos;
+
+    // content after store(COMPACT)
+    private volatile byte[] bytes;
+
+    // content after store(OFF_HEAP)
+    private volatile ByteBuffer buffer;
 
     private final String name;
 
@@ -44,10 +51,11 @@ public class MemJavaFileObject extends SimpleJavaFileObject {
 
     @Override
     public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
-        if (baos == null) {
+        byte[] content = getContent();
+        if (content == null) {
             throw new FileNotFoundException(name);
         }
-        return new String(baos.toByteArray(), Charsets.UTF_8);
+        return new String(content, Charsets.UTF_8);
     }
 
     @Override
@@ -56,22 +64,81 @@ public class MemJavaFileObject extends SimpleJavaFileObject {
     }
 
     public byte[] getByteArray() {
-        return baos.toByteArray();
+        return getContent();
+    }
+
+    // the storages are checked in the order store() moves the content
+    private byte[] getContent() {
+        ByteArrayOutputStream b = baos;
+        if (b != null) {
+            return b.toByteArray();
+        }
+        byte[] compact = bytes;
+        if (compact != null) {
+            return compact.clone();
+        }
+        ByteBuffer offHeap = buffer;
+        if (offHeap != null) {
+            byte[] content = new byte[offHeap.capacity()];
+            offHeap.duplicate().get(content);
+            return content;
+        }
+        return null;
+    }
+
+    /**
+     * @return size of the content in bytes
+     */
+    public int getSize() {
+        ByteArrayOutputStream b = baos;
+        if (b != null) {
+            return b.size();
+        }
+        byte[] compact = bytes;
+        if (compact != null) {
+            return compact.length;
+        }
+        ByteBuffer offHeap = buffer;
+        return offHeap != null ? offHeap.capacity() : 0;
+    }
+
+    /**
+     * Move the content to the given storage. The content stays readable, but can't be
+     * moved back from a more compact storage.
+     * 
+     * @param storage target storage
+     */
+    public synchronized void store(ByteStorage storage) {
+        if (storage == ByteStorage.COMPACT && baos != null) {
+            bytes = baos.toByteArray();
+            baos = null;
+        } else if (storage == ByteStorage.OFF_HEAP && buffer == null) {
+            byte[] content = getContent();
+            if (content != null) {
+                ByteBuffer offHeap = ByteBuffer.allocateDirect(content.length);
+                offHeap.put(content).flip();
+                buffer = offHeap;
+                baos = null;
+                bytes = null;
+            }
+        }
     }
 
     @Override
     public InputStream openInputStream() throws IOException {
-        if (baos == null) {
+        byte[] content = getContent();
+        if (content == null) {
             throw new FileNotFoundException(name);
         }
-        return new ByteArrayInputStream(baos.toByteArray());
+        return new ByteArrayInputStream(content);
     }
 
     @Override
-    public OutputStream openOutputStream() throws IOException {
-        if (baos == null) {
-            baos = new ByteArrayOutputStream();
-        }
+    public synchronized OutputStream openOutputStream() throws IOException {
+        // replace the previous content
+        bytes = null;
+        buffer = null;
+        baos = new ByteArrayOutputStream();
         return baos;
     }
 
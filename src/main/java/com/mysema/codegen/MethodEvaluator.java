@@ -15,6 +15,7 @@ package com.mysema.codegen;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -27,29 +28,88 @@ public final class MethodEvaluator<T> implements Evaluator<T> {
     private final Method method;
 
     private final Class<? extends T> projectionType;
-    
-    private final Object[] args;
+
+    private final Object[] constants;
+
+    private final int argCount;
+
+    // per thread argument arrays with the constants at the tail, so that evaluators
+    // can be shared without allocating an array per call
+    private final ThreadLocal<Object[]> args = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            Object[] args = new Object[argCount + constants.length];
+            System.arraycopy(constants, 0, args, argCount, constants.length);
+            return args;
+        }
+    };
 
     MethodEvaluator(Method method, Map<String, Object> constants, Class<? extends T> projectionType) {
         this.method = method;
         this.projectionType = projectionType;
-        this.args = new Object[method.getParameterTypes().length];
-        int i = args.length - constants.size();
-        for (Object value : constants.values()) {
-            args[i++] = value;
-        }
+        this.constants = constants.values().toArray();
+        this.argCount = method.getParameterTypes().length - this.constants.length;
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public T evaluate(Object... args) {
+        if (constants.length == 0 && args.length == argCount) {
+            try {
+                return (T) method.invoke(null, args);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        Object[] allArgs = this.args.get();
+        int length = Math.min(args.length, argCount);
+        System.arraycopy(args, 0, allArgs, 0, length);
+        return invoke(allArgs, length);
+    }
+
+    @Override
+    public T evaluate(Object a) {
+        return evaluate(1, a, null, null);
+    }
+
+    @Override
+    public T evaluate(Object a, Object b) {
+        return evaluate(2, a, b, null);
+    }
+
+    @Override
+    public T evaluate(Object a, Object b, Object c) {
+        return evaluate(3, a, b, c);
+    }
+
+    private T evaluate(int count, Object a, Object b, Object c) {
+        Object[] allArgs = this.args.get();
+        int length = Math.min(count, argCount);
+        if (length > 0) {
+            allArgs[0] = a;
+        }
+        if (length > 1) {
+            allArgs[1] = b;
+        }
+        if (length > 2) {
+            allArgs[2] = c;
+        }
+        return invoke(allArgs, length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T invoke(Object[] allArgs, int length) {
         try {
-            System.arraycopy(args, 0, this.args, 0, args.length);
-            return (T) method.invoke(null, this.args);
+            return (T) method.invoke(null, allArgs);
         } catch (IllegalAccessException e) {
             throw new IllegalArgumentException(e);
         } catch (InvocationTargetException e) {
             throw new IllegalArgumentException(e);
+        } finally {
+            // don't keep references to the arguments
+            Arrays.fill(allArgs, 0, length, null);
         }
     }
 
@@ -62,6 +62,10 @@ public class TypeSuper extends TypeAdapter {
         }
     }
 
+    public Type getSuperType() {
+        return superType;
+    }
+
     public String getVarName() {
         return varName;
     }
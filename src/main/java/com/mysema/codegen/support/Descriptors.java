@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012, Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mysema.codegen.support;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.TypeExtends;
+import com.mysema.codegen.model.TypeSuper;
+import com.mysema.codegen.model.Types;
+
+/**
+ * Descriptors provides JVM descriptors and generic signatures of types
+ *
+ * @author tiwe
+ *
+ */
+public final class Descriptors {
+
+    private static final Map<String, String> PRIMITIVES = ImmutableMap.<String, String>builder()
+            .put("boolean", "Z").put("byte", "B").put("char", "C").put("short", "S")
+            .put("int", "I").put("long", "J").put("float", "F").put("double", "D")
+            .put("void", "V").build();
+
+    /**
+     * @param cl
+     * @return internal name, e.g. <code>java/util/Map$Entry</code>
+     */
+    public static String getInternalName(Class<?> cl) {
+        return cl.getName().replace('.', '/');
+    }
+
+    /**
+     * @param type
+     * @return internal name of the raw type, e.g. <code>java/util/Map$Entry</code>
+     */
+    public static String getInternalName(Type type) {
+        String packageName = type.getPackageName();
+        String fullName = type.getFullName();
+        if (packageName.isEmpty()) {
+            return fullName.replace('.', '$');
+        } else {
+            String localName = fullName.substring(packageName.length() + 1);
+            return packageName.replace('.', '/') + "/" + localName.replace('.', '$');
+        }
+    }
+
+    /**
+     * @param cl
+     * @return descriptor, e.g. <code>I</code> or <code>[Ljava/lang/String;</code>
+     */
+    public static String getDescriptor(Class<?> cl) {
+        if (cl.isPrimitive()) {
+            return PRIMITIVES.get(cl.getName());
+        } else if (cl.isArray()) {
+            return "[" + getDescriptor(cl.getComponentType());
+        } else {
+            return "L" + getInternalName(cl) + ";";
+        }
+    }
+
+    /**
+     * @param type
+     * @return descriptor of the erasure of the type
+     */
+    public static String getDescriptor(Type type) {
+        String fullName = type.getFullName();
+        if (fullName.endsWith("[]")) {
+            return "[" + getDescriptor(getComponentType(type));
+        } else if (PRIMITIVES.containsKey(fullName)) {
+            return PRIMITIVES.get(fullName);
+        } else {
+            return "L" + getInternalName(type) + ";";
+        }
+    }
+
+    /**
+     * @param returnType
+     * @param parameterTypes
+     * @return method descriptor, e.g. <code>(ILjava/lang/String;)V</code>
+     */
+    public static String getMethodDescriptor(Class<?> returnType, Class<?>... parameterTypes) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Class<?> parameterType : parameterTypes) {
+            descriptor.append(getDescriptor(parameterType));
+        }
+        return descriptor.append(")").append(getDescriptor(returnType)).toString();
+    }
+
+    /**
+     * @param returnType
+     * @param parameterTypes
+     * @return method descriptor of the erasures of the given types
+     */
+    public static String getMethodDescriptor(Type returnType, Type... parameterTypes) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Type parameterType : parameterTypes) {
+            descriptor.append(getDescriptor(parameterType));
+        }
+        return descriptor.append(")").append(getDescriptor(returnType)).toString();
+    }
+
+    /**
+     * @param type
+     * @return generic signature, e.g. <code>Ljava/util/List&lt;Ljava/lang/String;&gt;;</code>
+     */
+    public static String getSignature(Type type) {
+        StringBuilder signature = new StringBuilder();
+        appendSignature(signature, type);
+        return signature.toString();
+    }
+
+    private static void appendSignature(StringBuilder signature, Type type) {
+        if (type instanceof TypeExtends && ((TypeExtends) type).getVarName() != null) {
+            signature.append("T").append(((TypeExtends) type).getVarName()).append(";");
+            return;
+        } else if (type instanceof TypeSuper && ((TypeSuper) type).getVarName() != null) {
+            signature.append("T").append(((TypeSuper) type).getVarName()).append(";");
+            return;
+        }
+        String fullName = type.getFullName();
+        if (fullName.endsWith("[]")) {
+            signature.append("[");
+            appendSignature(signature, getComponentType(type));
+        } else if (PRIMITIVES.containsKey(fullName)) {
+            signature.append(PRIMITIVES.get(fullName));
+        } else {
+            signature.append("L").append(getInternalName(type));
+            List<Type> parameters = type.getParameters();
+            if (!parameters.isEmpty()) {
+                signature.append("<");
+                for (Type parameter : parameters) {
+                    appendTypeArgument(signature, parameter);
+                }
+                signature.append(">");
+            }
+            signature.append(";");
+        }
+    }
+
+    private static void appendTypeArgument(StringBuilder signature, Type parameter) {
+        if (parameter == null) {
+            signature.append("*");
+        } else if (parameter instanceof TypeExtends
+                && ((TypeExtends) parameter).getVarName() == null) {
+            if (Types.OBJECT.getFullName().equals(parameter.getFullName())) {
+                signature.append("*");
+            } else {
+                signature.append("+");
+                appendSignature(signature, parameter);
+            }
+        } else if (parameter instanceof TypeSuper
+                && ((TypeSuper) parameter).getVarName() == null) {
+            signature.append("-");
+            appendSignature(signature, ((TypeSuper) parameter).getSuperType());
+        } else {
+            appendSignature(signature, parameter);
+        }
+    }
+
+    private static Type getComponentType(Type type) {
+        Type componentType = type.getComponentType();
+        if (componentType == null) {
+            throw new IllegalArgumentException("No component type for " + type.getFullName());
+        }
+        return componentType;
+    }
+
+    private Descriptors() {
+    }
+
+}
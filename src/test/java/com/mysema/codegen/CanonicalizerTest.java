@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ *
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.SimpleType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.model.Types;
+
+public class CanonicalizerTest {
+
+    private static EvaluatorSpec canonicalize(String source, String... names) {
+        Class<?>[] classes = new Class<?>[names.length];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = String.class;
+        }
+        return Canonicalizer.canonicalize(new EvaluatorSpec(source, String.class, names, classes,
+                Collections.<String, Object> emptyMap()));
+    }
+
+    @Test
+    public void Whitespace_And_Comments() {
+        assertEquals("return a+b;", canonicalize("return a + b; // sum").getSource());
+        assertEquals("return a- -b;", canonicalize("return a - -b;").getSource());
+        assertEquals("return\"a  b\";", canonicalize("return  /* x */ \"a  b\";").getSource());
+    }
+
+    @Test
+    public void Argument_Names() {
+        EvaluatorSpec spec = canonicalize("return first.length() + second.first();",
+                "first", "second");
+        assertEquals("return _a0.length()+_a1.first();", spec.getSource());
+        assertArrayEquals(new String[] { "_a0", "_a1" }, spec.getNames());
+    }
+
+    @Test
+    public void Member_Names() {
+        // arguments named like members
+        EvaluatorSpec spec = canonicalize("return s.length() + length.length();", "s", "length");
+        assertEquals("return _a0.length()+_a1.length();", spec.getSource());
+        assertEquals("return _a0.length()+_a1.length();",
+                canonicalize("return x.length() + y.length();", "x", "y").getSource());
+        assertEquals("return _a1.length()+_a0.length();",
+                canonicalize("return length.length() + s.length();", "s", "length").getSource());
+    }
+
+    @Test
+    public void Qualified_Names() {
+        EvaluatorSpec spec = canonicalize(
+                "return java instanceof java.util.List || java.CASE_INSENSITIVE_ORDER != null;",
+                "java");
+        assertEquals("return _a0 instanceof java.util.List||_a0.CASE_INSENSITIVE_ORDER!=null;",
+                spec.getSource());
+        assertEquals("return _a0 instanceof java.util.List;",
+                canonicalize("return x instanceof java.util.List;", "x").getSource());
+        // array length
+        spec = Canonicalizer.canonicalize(new EvaluatorSpec("return java.length;", int.class,
+                new String[] { "java" }, new Class<?>[] { String[].class },
+                Collections.<String, Object> emptyMap()));
+        assertEquals("return _a0.length;", spec.getSource());
+    }
+
+    @Test
+    public void Qualified_Names_Without_Classes() {
+        // specs with constant types only, as in manifests
+        ClassType string = new ClassType(TypeCategory.SIMPLE, String.class);
+        EvaluatorSpec spec = Canonicalizer.canonicalize(new EvaluatorSpec(
+                "return java instanceof java.util.List || java.CASE_INSENSITIVE_ORDER != null;",
+                Types.BOOLEAN_P, new String[] { "java" }, new Type[] { string },
+                Collections.<String, Type> emptyMap()));
+        assertEquals("return _a0 instanceof java.util.List||_a0.CASE_INSENSITIVE_ORDER!=null;",
+                spec.getSource());
+
+        // a type without Java class keeps the names
+        Type unknown = new SimpleType("com.example.Missing", "com.example", "Missing");
+        spec = Canonicalizer.canonicalize(new EvaluatorSpec("return java.util.isEmpty();",
+                Types.BOOLEAN_P, new String[] { "java" }, new Type[] { unknown }, null,
+                Collections.<String, Object> emptyMap()));
+        assertEquals("return java.util.isEmpty();", spec.getSource());
+        assertArrayEquals(new String[] { "java" }, spec.getNames());
+
+        // from the declared types, if no classes are given
+        spec = Canonicalizer.canonicalize(new EvaluatorSpec("return java.CASE_INSENSITIVE_ORDER"
+                + " != null && java.util.Locale.ROOT != null;", Types.BOOLEAN_P,
+                new String[] { "java" }, new Type[] { string }, null,
+                Collections.<String, Object> emptyMap()));
+        assertEquals("return _a0.CASE_INSENSITIVE_ORDER!=null&&java.util.Locale.ROOT!=null;",
+                spec.getSource());
+    }
+
+    @Test
+    public void Positional_Names_In_Use() {
+        EvaluatorSpec spec = canonicalize("return a + _a0;", "a");
+        assertEquals("return a+_a0;", spec.getSource());
+        assertArrayEquals(new String[] { "a" }, spec.getNames());
+    }
+
+    @Test
+    public void Constant_Order() {
+        Map<String, Object> constants = new LinkedHashMap<String, Object>();
+        constants.put("b", 2);
+        constants.put("a", 1);
+        EvaluatorSpec spec = Canonicalizer.canonicalize(new EvaluatorSpec("return a + b;",
+                int.class, new String[0], new Class<?>[0], constants));
+        assertEquals("[a, b]", spec.getConstants().keySet().toString());
+    }
+
+}
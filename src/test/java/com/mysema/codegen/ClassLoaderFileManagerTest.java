@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ *
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassLoaderFileManagerTest {
+
+    private ClassLoaderFileManager fileManager;
+
+    @Before
+    public void setUp() {
+        fileManager = new ClassLoaderFileManager(getClass().getClassLoader(),
+                ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileManager.close();
+    }
+
+    @Test
+    public void List_Jar() throws IOException {
+        List<String> names = list("com.google.common.base", false);
+        assertTrue(names.contains("com.google.common.base.Strings"));
+        assertFalse(names.contains("com.google.common.collect.Lists"));
+        assertTrue(list("com.google.common", true).contains("com.google.common.collect.Lists"));
+    }
+
+    @Test
+    public void List_Directory() throws IOException {
+        List<String> names = list("com.mysema.codegen", false);
+        assertTrue(names.contains("com.mysema.codegen.ClassLoaderFileManagerTest"));
+        assertTrue(names.contains("com.mysema.codegen.JDKEvaluatorFactoryTest$TestEntity"));
+        assertTrue(list("com.mysema", true).contains("com.mysema.codegen.model.Types"));
+    }
+
+    @Test
+    public void List_Unknown() throws IOException {
+        assertTrue(list("com.example.missing", false).isEmpty());
+        assertTrue(list("com.mysema.codegen", EnumSet.of(Kind.SOURCE), false).isEmpty());
+    }
+
+    @Test
+    public void Read() throws IOException {
+        for (JavaFileObject file : fileManager.list(StandardLocation.CLASS_PATH,
+                "com.google.common.base", EnumSet.of(Kind.CLASS), false)) {
+            if (file.isNameCompatible("Strings", Kind.CLASS)) {
+                DataInputStream in = new DataInputStream(file.openInputStream());
+                try {
+                    assertEquals(0xCAFEBABE, in.readInt());
+                } finally {
+                    in.close();
+                }
+                return;
+            }
+        }
+        throw new AssertionError("Strings not found");
+    }
+
+    private List<String> list(String packageName, boolean recurse) throws IOException {
+        return list(packageName, EnumSet.of(Kind.CLASS), recurse);
+    }
+
+    private List<String> list(String packageName, EnumSet<Kind> kinds, boolean recurse)
+            throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (JavaFileObject file : fileManager.list(StandardLocation.CLASS_PATH, packageName,
+                kinds, recurse)) {
+            names.add(fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file));
+        }
+        return names;
+    }
+
+}
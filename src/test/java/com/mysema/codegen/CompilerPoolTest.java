@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ *
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class CompilerPoolTest {
+
+    private CompilerPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void Priority() throws Exception {
+        pool = new CompilerPool(1, 10);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        ListenableFuture<String> first = pool.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                blocked.await();
+                return "first";
+            }
+        }, CompilerPool.Priority.INTERACTIVE);
+        List<ListenableFuture<String>> results = new ArrayList<ListenableFuture<String>>();
+        results.add(pool.submit(record(order, "background1"), CompilerPool.Priority.BACKGROUND));
+        results.add(pool.submit(record(order, "background2"), CompilerPool.Priority.BACKGROUND));
+        results.add(pool.submit(record(order, "interactive"), CompilerPool.Priority.INTERACTIVE));
+        blocked.countDown();
+
+        assertEquals("first", first.get());
+        Futures.allAsList(results).get();
+        assertEquals(Arrays.asList("interactive", "background1", "background2"), order);
+    }
+
+    @Test
+    public void QueueSize() throws Exception {
+        pool = new CompilerPool(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        ListenableFuture<String> first = pool.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                blocked.await();
+                return "first";
+            }
+        }, CompilerPool.Priority.INTERACTIVE);
+        started.await();
+        List<String> order = new ArrayList<String>();
+        ListenableFuture<String> second = pool.submit(record(order, "second"),
+                CompilerPool.Priority.BACKGROUND);
+        assertEquals(1, pool.getQueued());
+        try {
+            pool.submit(record(order, "third"), CompilerPool.Priority.BACKGROUND);
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            blocked.countDown();
+        }
+        assertEquals("first", first.get());
+        assertEquals("second", second.get());
+        assertEquals(Arrays.asList("second"), order);
+    }
+
+    @Test
+    public void WorkerThread() throws Exception {
+        pool = new CompilerPool(2, 10);
+        assertFalse(pool.isWorkerThread());
+        assertTrue(pool.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return pool.isWorkerThread();
+            }
+        }, CompilerPool.Priority.INTERACTIVE).get());
+    }
+
+    private static Callable<String> record(final List<String> order, final String name) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                order.add(name);
+                return name;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ *
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.ParameterizedType;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mysema.codegen.ECJEvaluatorFactoryTest.TestEntity;
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.model.Types;
+
+public class DirectEvaluatorFactoryTest {
+
+    public static class Overloads {
+
+        public String specific(Object a, Object b) {
+            return "Object, Object";
+        }
+
+        public String specific(String a, Object b) {
+            return "String, Object";
+        }
+
+        public String specific(String a, String b) {
+            return "String, String";
+        }
+
+    }
+
+    // the order of getMethods() depends on the declaration order, so the ambiguous
+    // overloads are declared in several orders
+
+    public static class Overloads_ACB {
+
+        public String ambiguous(Object a, String b) {
+            return "Object, String";
+        }
+
+        public String ambiguous(CharSequence a, String b) {
+            return "CharSequence, String";
+        }
+
+        public String ambiguous(String a, Object b) {
+            return "String, Object";
+        }
+
+    }
+
+    public static class Overloads_BCA {
+
+        public String ambiguous(String a, Object b) {
+            return "String, Object";
+        }
+
+        public String ambiguous(CharSequence a, String b) {
+            return "CharSequence, String";
+        }
+
+        public String ambiguous(Object a, String b) {
+            return "Object, String";
+        }
+
+    }
+
+    public static class Overloads_CAB {
+
+        public String ambiguous(CharSequence a, String b) {
+            return "CharSequence, String";
+        }
+
+        public String ambiguous(Object a, String b) {
+            return "Object, String";
+        }
+
+        public String ambiguous(String a, Object b) {
+            return "String, Object";
+        }
+
+    }
+
+    private DirectEvaluatorFactory factory;
+
+    private Map<String, Object> constants = Collections.emptyMap();
+
+    @Before
+    public void setUp() {
+        factory = new DirectEvaluatorFactory(getClass().getClassLoader());
+    }
+
+    @Test
+    public void Arithmetic() {
+        assertDirect(5, "return a + b * 2;", int.class, 1, 2);
+        assertDirect(-3, "return -(a - b) % 3 - 2;", int.class, 4, 3);
+        assertDirect(2.5, "return a / 2.0;", double.class, 5, 0);
+        assertDirect(3L, "return a + 1L;", long.class, 2, 0);
+        assertDirect(7, "return a + b;", Integer.class, 3, 4);
+    }
+
+    @Test
+    public void Comparisons() {
+        assertDirect(true, "return a > b && !(a == 0) || false;", boolean.class, 2, 1);
+        assertDirect(false, "return a <= b;", Boolean.class, 2, 1);
+        assertDirect(true, "return a != b;", boolean.class, 2, 1);
+        assertDirect(true, "return a >= 2L && b < 1.5;", boolean.class, 2, 1);
+    }
+
+    @Test
+    public void Boxed_Arguments() {
+        assertDirect(3L, "return a + 1L;", long.class, Long.class, 2L, 0L);
+        assertDirect(true, "return a == 2;", boolean.class, Long.class, 2L, 0L);
+        assertDirect(5.0f, "return a * 2f;", float.class, Float.class, 2.5f, 0f);
+        assertDirect(3.5, "return a + 1.0;", double.class, Double.class, 2.5, 0.0);
+        assertDirect(true, "return a > 1.0;", boolean.class, Double.class, 2.5, 0.0);
+        assertDirect(2.5, "return a;", double.class, Double.class, 2.5, 0.0);
+        assertDirect(4.0, "return a + b;", double.class, Integer.class, 1, 3);
+    }
+
+    @Test
+    public void NaN() {
+        String[] names = {"a", "b"};
+        Class<?>[] classes = {double.class, double.class};
+        for (String source : Arrays.asList("return a < b;", "return a <= b;", "return a > b;",
+                "return a >= b;", "return a == b;")) {
+            BooleanEvaluator evaluator = factory.createBooleanEvaluator(source, names, classes,
+                    constants);
+            assertTrue(evaluator instanceof DirectEvaluator);
+            assertFalse(source, evaluator.evaluateBoolean(Double.NaN, 1.0));
+            assertFalse(source, evaluator.evaluateBoolean(1.0, Double.NaN));
+        }
+    }
+
+    @Test
+    public void Strings() {
+        assertDirect(true, "return a.equals(b);", boolean.class, "x", "x");
+        assertDirect(3, "return a.length() + b.length();", int.class, "ab", "c");
+        assertDirect("bc", "return a.substring(1);", String.class, "abc", "");
+        assertDirect(true, "return a.charAt(0) == 'a' && b.startsWith(\"\\\"\");", boolean.class,
+                "abc", "\"x");
+        assertDirect(false, "return a == null;", boolean.class, "a", null);
+    }
+
+    @Test
+    public void Getters() {
+        Evaluator<String> evaluator = factory.createEvaluator("return a.getName();", String.class,
+                new String[]{"a"}, new Class<?>[]{TestEntity.class}, constants);
+        assertTrue(evaluator instanceof DirectEvaluator);
+        assertEquals("abc", evaluator.evaluate(new TestEntity("abc")));
+    }
+
+    @Test
+    public void Interfaces_And_Arrays() {
+        Evaluator<Integer> size = factory.createEvaluator("return a.size() + a.hashCode() * 0;",
+                int.class, new String[]{"a"}, new Class<?>[]{List.class}, constants);
+        assertTrue(size instanceof DirectEvaluator);
+        assertEquals(Integer.valueOf(2), size.evaluate(Arrays.asList(1, 2)));
+
+        Evaluator<Integer> length = factory.createEvaluator("return a.length;", int.class,
+                new String[]{"a"}, new Class<?>[]{String[].class}, constants);
+        assertTrue(length instanceof DirectEvaluator);
+        assertEquals(Integer.valueOf(3), length.evaluate(new Object[]{new String[3]}));
+    }
+
+    @Test
+    public void Constants() {
+        Map<String, Object> constants = new LinkedHashMap<String, Object>();
+        constants.put("c", 3);
+        constants.put("d", "x");
+        Evaluator<Boolean> evaluator = factory.createEvaluator("return a + c > 4 && b.equals(d);",
+                boolean.class, new String[]{"a", "b"}, new Class<?>[]{int.class, String.class},
+                constants);
+        assertTrue(evaluator instanceof DirectEvaluator);
+        assertTrue(evaluator.evaluate(2, "x"));
+        assertFalse(evaluator.evaluate(1, "x"));
+    }
+
+    @Test
+    public void Primitive_Evaluators() {
+        String[] names = {"a", "b"};
+        Class<?>[] classes = {int.class, int.class};
+        assertEquals(3, factory.createIntEvaluator("return a + b;", names, classes, constants)
+                .evaluateInt(1, 2));
+        assertEquals(3L, factory.createLongEvaluator("return a + b;", names, classes, constants)
+                .evaluateLong(1, 2));
+        assertEquals(1.5, factory.createDoubleEvaluator("return a / 2.0;", names, classes,
+                constants).evaluateDouble(3, 2), 0.0);
+        assertTrue(factory.createBooleanEvaluator("return a < b;", names, classes, constants)
+                .evaluateBoolean(1, 2));
+    }
+
+    @Test
+    public void Generic_Projection() {
+        ClassType projection = new ClassType(TypeCategory.LIST, List.class, Types.STRING);
+        Evaluator<List<String>> evaluator = factory.createEvaluator("return a;", projection,
+                new String[]{"a"}, new Type[]{projection}, new Class<?>[]{List.class}, constants);
+        assertTrue(evaluator instanceof DirectEvaluator);
+        assertEquals(Arrays.asList("x"), evaluator.evaluate(Arrays.asList("x")));
+        ParameterizedType superType = (ParameterizedType) evaluator.getClass().getGenericSuperclass();
+        assertEquals("java.util.List<java.lang.String>",
+                superType.getActualTypeArguments()[0].toString());
+    }
+
+    @Test
+    public void Cached() {
+        Evaluator<?> first = factory.createEvaluator("return a + b;", int.class,
+                new String[]{"a", "b"}, new Class<?>[]{int.class, int.class}, constants);
+        Evaluator<?> second = factory.createEvaluator("return a + b;", int.class,
+                new String[]{"a", "b"}, new Class<?>[]{int.class, int.class}, constants);
+        assertSame(first.getClass(), second.getClass());
+    }
+
+    @Test
+    public void Cache_Bounds() {
+        ECJEvaluatorFactory ecj = new ECJEvaluatorFactory(getClass().getClassLoader());
+        ecj.setMaximumCacheSize(1);
+        factory = new DirectEvaluatorFactory(getClass().getClassLoader(), ecj);
+        String[] names = {"a", "b"};
+        Class<?>[] classes = {int.class, int.class};
+        Evaluator<?> first = factory.createEvaluator("return a + b;", int.class, names, classes,
+                constants);
+        factory.createEvaluator("return a - b;", int.class, names, classes, constants);
+        Evaluator<?> evicted = factory.createEvaluator("return a + b;", int.class, names,
+                classes, constants);
+        assertNotSame(first.getClass(), evicted.getClass());
+        assertEquals(3, evicted.evaluate(1, 2));
+
+        factory.setMaximumCacheSize(-1);
+        factory.setMaximumCacheWeight(1000000);
+        try {
+            factory.setMaximumCacheSize(10);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        first = factory.createEvaluator("return a + b;", int.class, names, classes, constants);
+        factory.createEvaluator("return a - b;", int.class, names, classes, constants);
+        assertSame(first.getClass(), factory.createEvaluator("return a + b;", int.class, names,
+                classes, constants).getClass());
+    }
+
+    @Test
+    public void Unsupported_Cache() {
+        factory.setUnsupportedCacheSize(0);
+        for (int i = 0; i < 2; i++) {
+            Evaluator<String> concat = factory.createEvaluator("return a + b;", String.class,
+                    new String[]{"a", "b"}, new Class<?>[]{String.class, String.class},
+                    constants);
+            assertFalse(concat instanceof DirectEvaluator);
+            assertEquals("ab", concat.evaluate("a", "b"));
+        }
+    }
+
+    @Test
+    public void Arguments_And_Constants() {
+        Evaluator<BigDecimal> arguments = factory.createEvaluator("return a.add(b);",
+                BigDecimal.class, new String[]{"a", "b"},
+                new Class<?>[]{BigDecimal.class, BigDecimal.class}, constants);
+        Evaluator<BigDecimal> constant = factory.createEvaluator("return a.add(b);",
+                BigDecimal.class, new String[]{"a"}, new Class<?>[]{BigDecimal.class},
+                Collections.<String, Object>singletonMap("b", BigDecimal.TEN));
+        assertTrue(arguments instanceof DirectEvaluator);
+        assertTrue(constant instanceof DirectEvaluator);
+        assertNotSame(arguments.getClass(), constant.getClass());
+        assertEquals(new BigDecimal(3), arguments.evaluate(BigDecimal.ONE, new BigDecimal(2)));
+        assertEquals(new BigDecimal(11), constant.evaluate(BigDecimal.ONE));
+    }
+
+    @Test
+    public void Overloads() {
+        String[] names = {"o", "a", "b"};
+        Class<?>[] classes = {Overloads.class, String.class, String.class};
+        Evaluator<String> specific = factory.createEvaluator("return o.specific(a, b);",
+                String.class, names, classes, constants);
+        assertTrue(specific instanceof DirectEvaluator);
+        assertEquals("String, String", specific.evaluate(new Overloads(), "a", "b"));
+
+        // javac rejects the call, since (String, Object) and (CharSequence, String) are
+        // maximally specific
+        for (Class<?> type : Arrays.<Class<?>>asList(Overloads_ACB.class, Overloads_BCA.class,
+                Overloads_CAB.class)) {
+            try {
+                factory.createEvaluator("return o.ambiguous(a, b);", String.class, names,
+                        new Class<?>[]{type, String.class, String.class}, constants);
+                fail("expected compilation failure");
+            } catch (CodegenException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void Exceptions() {
+        Evaluator<Integer> evaluator = factory.createEvaluator("return a.length();", int.class,
+                new String[]{"a"}, new Class<?>[]{String.class}, constants);
+        try {
+            evaluator.evaluate((Object) null);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        try {
+            evaluator.evaluate();
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void Fallback() {
+        Evaluator<String> concat = factory.createEvaluator("return a + b;", String.class,
+                new String[]{"a", "b"}, new Class<?>[]{String.class, String.class}, constants);
+        assertFalse(concat instanceof DirectEvaluator);
+        assertEquals("ab", concat.evaluate("a", "b"));
+
+        Evaluator<Integer> max = factory.createEvaluator("if (a > b) { return a; } return b;",
+                int.class, new String[]{"a", "b"}, new Class<?>[]{int.class, int.class},
+                constants);
+        assertFalse(max instanceof DirectEvaluator);
+        assertEquals(Integer.valueOf(2), max.evaluate(1, 2));
+
+        try {
+            factory.createEvaluator("return a;", int.class, new String[]{"a"},
+                    new Class<?>[]{long.class}, constants);
+            fail("expected compilation failure");
+        } catch (CodegenException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void CreateEvaluators() {
+        String[] names = {"a", "b"};
+        Class<?>[] classes = {String.class, String.class};
+        List<Evaluator<?>> evaluators = factory.createEvaluators(Arrays.asList(
+                new EvaluatorSpec("return a + b;", String.class, names, classes, constants),
+                new EvaluatorSpec("return a.equals(b);", boolean.class, names, classes, constants)));
+        assertFalse(evaluators.get(0) instanceof DirectEvaluator);
+        assertTrue(evaluators.get(1) instanceof DirectEvaluator);
+        assertEquals("ab", evaluators.get(0).evaluate("a", "b"));
+        assertEquals(Boolean.FALSE, evaluators.get(1).evaluate("a", "b"));
+    }
+
+    private void assertDirect(Object expected, String source, Class<?> projection,
+            Object a, Object b) {
+        assertDirect(expected, source, projection,
+                a instanceof Integer ? int.class : String.class, a, b);
+    }
+
+    private void assertDirect(Object expected, String source, Class<?> projection,
+            Class<?> type, Object a, Object b) {
+        Evaluator<?> evaluator = factory.createEvaluator(source, projection,
+                new String[]{"a", "b"}, new Class<?>[]{type, type}, constants);
+        assertTrue(source, evaluator instanceof DirectEvaluator);
+        assertEquals(source, expected, evaluator.evaluate(a, b));
+    }
+
+}
@@ -6,18 +6,38 @@
 package com.mysema.codegen;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ListenableFuture;
+
 public class ECJEvaluatorFactoryTest {
 
     public static class TestEntity {
@@ -68,6 +88,20 @@ public class ECJEvaluatorFactoryTest {
         }
     }
 
+    @Test
+    public void DefaultCompilerOptions() {
+        String version = System.getProperty("java.specification.version");
+        try {
+            for (String javaSpecVersion : Arrays.asList("1.8", "9", "17")) {
+                System.setProperty("java.specification.version", javaSpecVersion);
+                assertEquals(ClassFileConstants.JDK1_7,
+                        ECJEvaluatorFactory.getDefaultCompilerOptions().sourceLevel);
+            }
+        } finally {
+            System.setProperty("java.specification.version", version);
+        }
+    }
+
     @Test
     public void Results() {
         // String + String
@@ -104,6 +138,519 @@ public class ECJEvaluatorFactoryTest {
                 Arrays.asList(new TestEntity("Hello World")), "Hello World");
     }
 
+    @Test
+    public void Concurrent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 32; i++) {
+                final int offset = i % 4;
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return evaluate("a + b + " + offset, int.class, names, ints,
+                                Arrays.asList(1, 2), Collections.<String, Object> emptyMap());
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(3 + i % 4, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void FixedArity() {
+        Evaluator<?> one = factory.createEvaluator("return a.length();", int.class,
+                new String[] { "a" }, new Class<?>[] { String.class },
+                Collections.<String, Object> emptyMap());
+        assertEquals(5, one.evaluate("Hello"));
+
+        Evaluator<?> two = factory.createEvaluator("return a + b;", int.class,
+                new String[] { "a", "b" }, new Class<?>[] { int.class, int.class },
+                Collections.<String, Object> emptyMap());
+        assertEquals(3, two.evaluate(1, 2));
+        assertEquals(3, two.evaluate(1, 2, 3));
+
+        Evaluator<?> three = factory.createEvaluator("return a + b + c + d;", int.class,
+                new String[] { "a", "b", "c" }, new Class<?>[] { int.class, int.class, int.class },
+                Collections.<String, Object> singletonMap("d", 4));
+        assertEquals(10, three.evaluate(1, 2, 3));
+        assertEquals(10, three.evaluate(new Object[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void PrimitiveEvaluators() {
+        Map<String, Object> noConstants = Collections.<String, Object> emptyMap();
+        String[] ab = new String[] { "a", "b" };
+        Class<?>[] intInt = new Class<?>[] { int.class, int.class };
+
+        IntEvaluator intEvaluator = factory.createIntEvaluator("return a + b;", ab, intInt,
+                noConstants);
+        assertEquals(3, intEvaluator.evaluateInt(1, 2));
+        assertEquals(3, intEvaluator.evaluateInt(new Object[] { 1, 2 }));
+        assertEquals(Integer.valueOf(3), intEvaluator.evaluate(1, 2));
+
+        LongEvaluator longEvaluator = factory.createLongEvaluator("return (long) a * b;", ab,
+                intInt, noConstants);
+        assertEquals(2L, longEvaluator.evaluateLong(1, 2));
+
+        DoubleEvaluator doubleEvaluator = factory.createDoubleEvaluator("return a / (double) b;",
+                ab, intInt, noConstants);
+        assertEquals(0.5, doubleEvaluator.evaluateDouble(1, 2), 0.0);
+
+        BooleanEvaluator booleanEvaluator = factory.createBooleanEvaluator("return a < x;",
+                new String[] { "a" }, new Class<?>[] { int.class },
+                Collections.<String, Object> singletonMap("x", 2));
+        Assert.assertTrue(booleanEvaluator.evaluateBoolean(1));
+        Assert.assertFalse(booleanEvaluator.evaluateBoolean(2));
+
+        Evaluator<?> evaluator = factory.createEvaluator("return a > b;", boolean.class, ab,
+                intInt, noConstants);
+        Assert.assertTrue(evaluator instanceof BooleanEvaluator);
+    }
+
+    @Test
+    public void ArgumentNames() {
+        assertEquals(-1, evaluate("a - b", int.class, Arrays.asList("a", "b"), ints,
+                Arrays.asList(1, 2), Collections.<String, Object> emptyMap()));
+        assertEquals(1, evaluate("a - b", int.class, Arrays.asList("b", "a"), ints,
+                Arrays.asList(1, 2), Collections.<String, Object> emptyMap()));
+    }
+
+    @Test
+    public void CacheStats() {
+        ((AbstractEvaluatorFactory) factory).setMaximumCacheSize(1);
+        for (String expr : Arrays.asList("a + b", "a + b", "a - b")) {
+            evaluate(expr, int.class, names, ints, Arrays.asList(1, 2),
+                    Collections.<String, Object> emptyMap());
+        }
+        CacheStats stats = ((AbstractEvaluatorFactory) factory).getCacheStats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(2, stats.missCount());
+        assertEquals(1, stats.evictionCount());
+    }
+
+    @Test
+    public void CacheKeys() {
+        AbstractEvaluatorFactory f = (AbstractEvaluatorFactory) factory;
+        List<String> a = Arrays.asList("a");
+        List<Class<?>> anInt = Arrays.<Class<?>> asList(int.class);
+        // constant types
+        assertEquals("1", evaluate("String.valueOf(c)", String.class, a, anInt, Arrays.asList(0),
+                Collections.<String, Object> singletonMap("c", 1)));
+        assertEquals("x", evaluate("String.valueOf(c)", String.class, a, anInt, Arrays.asList(0),
+                Collections.<String, Object> singletonMap("c", "x")));
+        // arguments and constants
+        assertEquals(3, evaluate("a + b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+        assertEquals(6, evaluate("a + b", int.class, a, anInt, Arrays.asList(1),
+                Collections.<String, Object> singletonMap("b", 5)));
+        // projection
+        assertEquals(3L, evaluate("a + b", long.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+        assertEquals(5, f.getCacheStats().missCount());
+
+        assertEquals(4, evaluate("a + b", int.class, names, ints, Arrays.asList(2, 2),
+                Collections.<String, Object> emptyMap()));
+        assertEquals(1, f.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void CacheWeight() {
+        ((AbstractEvaluatorFactory) factory).setMaximumCacheWeight(0);
+        evaluate("a + b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap());
+        assertEquals(1, ((AbstractEvaluatorFactory) factory).getCacheStats().evictionCount());
+    }
+
+    @Test
+    public void CacheSize_And_Weight() {
+        AbstractEvaluatorFactory f = (AbstractEvaluatorFactory) factory;
+        f.setMaximumCacheSize(1);
+        try {
+            f.setMaximumCacheWeight(100);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // the size bound is kept
+        for (String expr : Arrays.asList("a + b", "a - b")) {
+            evaluate(expr, int.class, names, ints, Arrays.asList(1, 2),
+                    Collections.<String, Object> emptyMap());
+        }
+        assertEquals(1, f.getCacheStats().evictionCount());
+
+        f.setMaximumCacheSize(-1);
+        f.setMaximumCacheWeight(100000);
+        assertEquals(3, evaluate("a + b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+    }
+
+    @Test
+    public void Generations() {
+        AbstractEvaluatorFactory f = (AbstractEvaluatorFactory) factory;
+        f.setGenerationSize(2);
+        f.setMaximumCacheSize(1);
+        for (int i = 0; i < 5; i++) {
+            evaluate("a + b + " + i, int.class, names, ints, Arrays.asList(1, 2),
+                    Collections.<String, Object> emptyMap());
+        }
+        assertTrue(f.getReclaimedBytes() > 0);
+
+        // classes of discarded generations are compiled again
+        assertEquals(3, evaluate("a + b + 0", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+    }
+
+    @Test
+    public void Compact() {
+        AbstractEvaluatorFactory f = (AbstractEvaluatorFactory) factory;
+        f.setByteStorage(ByteStorage.COMPACT);
+        assertEquals(3, evaluate("a + b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+        assertEquals(-1, evaluate("a - b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+    }
+
+    @Test
+    public void OffHeap() {
+        AbstractEvaluatorFactory f = (AbstractEvaluatorFactory) factory;
+        f.setByteStorage(ByteStorage.OFF_HEAP);
+        assertEquals(3, evaluate("a + b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+        assertEquals(-1, evaluate("a - b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+    }
+
+    @Test
+    public void Metrics() {
+        EvaluatorFactoryMetrics metrics = new EvaluatorFactoryMetrics();
+        AbstractEvaluatorFactory f = (AbstractEvaluatorFactory) factory;
+        f.setListener(metrics);
+        f.setMaximumCacheSize(1);
+        for (String source : Arrays.asList("a + b", "a + b", "a * b")) {
+            evaluate(source, int.class, names, ints, Arrays.asList(1, 2),
+                    Collections.<String, Object> emptyMap());
+        }
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(2, metrics.getCacheMisses());
+        assertEquals(1, metrics.getCacheEvictions());
+        assertEquals(2, metrics.getCompilations());
+        assertEquals(2, metrics.getCompileTime().getCount());
+        assertEquals(2, metrics.getClassSize().getCount());
+        assertTrue(metrics.getClassSize().getMax() > 0);
+
+        try {
+            evaluate("a +", int.class, names, ints, Arrays.asList(1, 2),
+                    Collections.<String, Object> emptyMap());
+            fail("Expected CodegenException");
+        } catch (CodegenException e) {
+            assertEquals(1, metrics.getCompileFailures());
+        }
+    }
+
+    @Test
+    public void SourceGenerated() {
+        final List<String> ids = new ArrayList<String>();
+        ((AbstractEvaluatorFactory) factory).setListener(new EvaluatorFactoryListenerAdapter() {
+            @Override
+            public void sourceGenerated(String id, long nanos) {
+                ids.add(id);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            evaluate("a + b", int.class, names, ints, Arrays.asList(1, 2),
+                    Collections.<String, Object> emptyMap());
+        }
+        // only the compiled source is reported
+        assertEquals(1, ids.size());
+        assertTrue(ids.get(0).startsWith("Q_"));
+    }
+
+    @Test
+    public void InlineConstants() {
+        ((AbstractEvaluatorFactory) factory).setInlineConstants(true);
+        Map<String, Object> constants = new LinkedHashMap<String, Object>();
+        constants.put("limit", 3);
+        constants.put("unit", TimeUnit.SECONDS);
+        constants.put("prefix", "a\"\\\n");
+        constants.put("values", Arrays.asList(1, 2));
+        String source = "a < limit && unit == java.util.concurrent.TimeUnit.SECONDS "
+                + "&& prefix.length() == 4 && values.contains(a)";
+        assertEquals(true, evaluate(source, boolean.class, Arrays.asList("a"),
+                Arrays.<Class<?>> asList(int.class), Arrays.asList(2), constants));
+
+        // the inlined values are part of the class
+        constants.put("limit", 2);
+        assertEquals(false, evaluate(source, boolean.class, Arrays.asList("a"),
+                Arrays.<Class<?>> asList(int.class), Arrays.asList(2), constants));
+    }
+
+    @Test
+    public void Canonicalize() {
+        AbstractEvaluatorFactory f = (AbstractEvaluatorFactory) factory;
+        f.setCanonicalize(true);
+        assertEquals(3, evaluate("a + b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap()));
+        assertEquals(7, evaluate("x  +  y", int.class, Arrays.asList("x", "y"), ints,
+                Arrays.asList(3, 4), Collections.<String, Object> emptyMap()));
+        assertEquals(1, f.getCacheStats().missCount());
+
+        // arguments named like packages and members
+        assertEquals(true, evaluate("new java.util.ArrayList(java).size() == length.length()",
+                boolean.class, Arrays.asList("java", "length"),
+                Arrays.<Class<?>> asList(List.class, String.class),
+                Arrays.asList(Arrays.asList(1, 2), "ab"), Collections.<String, Object> emptyMap()));
+    }
+
+    @Test
+    public void Manifest() throws IOException {
+        EvaluatorManifest manifest = new EvaluatorManifest();
+        ((AbstractEvaluatorFactory) factory).setManifest(manifest);
+        Map<String, Object> constants = Collections.<String, Object> singletonMap("c", 10);
+        evaluate("a + b + c", int.class, names, ints, Arrays.asList(1, 2), constants);
+        evaluate("a * b", int.class, names, ints, Arrays.asList(1, 2),
+                Collections.<String, Object> emptyMap());
+        StringWriter writer = new StringWriter();
+        manifest.write(writer);
+
+        // replay in a new factory
+        AbstractEvaluatorFactory replayed = new ECJEvaluatorFactory(getClass().getClassLoader());
+        EvaluatorFactoryMetrics metrics = new EvaluatorFactoryMetrics();
+        replayed.setListener(metrics);
+        EvaluatorManifest read = EvaluatorManifest.read(new StringReader(writer.toString()),
+                getClass().getClassLoader());
+        assertEquals(2, replayed.precompile(read, 2));
+        long compilations = metrics.getCompilations();
+        assertEquals(2, compilations);
+
+        factory = replayed;
+        assertEquals(13, evaluate("a + b + c", int.class, names, ints, Arrays.asList(1, 2),
+                constants));
+        assertEquals(compilations, metrics.getCompilations());
+        assertEquals(1, metrics.getCacheHits());
+    }
+
+    @Test
+    public void Async() throws Exception {
+        Map<String, Object> noConstants = Collections.<String, Object> emptyMap();
+        Class<?>[] intInt = new Class<?>[] { int.class, int.class };
+        ListenableFuture<Evaluator<Integer>> first = factory.createEvaluatorAsync("return a % b;",
+                int.class, new String[] { "a", "b" }, intInt, noConstants);
+        ListenableFuture<Evaluator<Integer>> second = factory.createEvaluatorAsync("return a % b;",
+                int.class, new String[] { "a", "b" }, intInt, noConstants);
+        assertEquals(Integer.valueOf(1), first.get().evaluate(3, 2));
+        assertEquals(Integer.valueOf(1), second.get().evaluate(3, 2));
+
+        // cached evaluators are available immediately
+        assertTrue(factory.createEvaluatorAsync("return a % b;", int.class,
+                new String[] { "a", "b" }, intInt, noConstants).isDone());
+    }
+
+    @Test
+    public void Concurrent_Generations() throws Exception {
+        ((AbstractEvaluatorFactory) factory).setGenerationSize(3);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 20; i++) {
+                final String expr = "a * b + " + i;
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return evaluate(expr, int.class, names, ints, Arrays.asList(2, 3),
+                                Collections.<String, Object> emptyMap());
+                    }
+                }));
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals(6 + i, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void CompilerPool() throws Exception {
+        CompilerPool pool = new CompilerPool(2, 100);
+        try {
+            ((AbstractEvaluatorFactory) factory).setCompilerPool(pool);
+            List<EvaluatorSpec> specs = new ArrayList<EvaluatorSpec>();
+            for (int i = 0; i < 5; i++) {
+                specs.add(new EvaluatorSpec("return a * b + " + i + ";", int.class,
+                        new String[] { "a", "b" }, new Class<?>[] { int.class, int.class },
+                        Collections.<String, Object> emptyMap()));
+            }
+            List<Evaluator<?>> evaluators = factory.createEvaluators(specs);
+            for (int i = 0; i < 5; i++) {
+                assertEquals(6 + i, evaluators.get(i).evaluate(2, 3));
+            }
+            test("a + b", int.class, names, ints, Arrays.asList(1, 2), 3);
+            assertEquals(Integer.valueOf(1), factory.createEvaluatorAsync("return a % b;",
+                    int.class, new String[] { "a", "b" }, new Class<?>[] { int.class, int.class },
+                    Collections.<String, Object> emptyMap()).get().evaluate(3, 2));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void CompilerPool_Sync_And_Async() throws Exception {
+        CompilerPool pool = new CompilerPool(1, 100);
+        try {
+            ((AbstractEvaluatorFactory) factory).setCompilerPool(pool);
+            final CountDownLatch latch = new CountDownLatch(1);
+            pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    latch.await();
+                    return null;
+                }
+            }, CompilerPool.Priority.INTERACTIVE);
+
+            final String[] argNames = { "a", "b" };
+            final Class<?>[] argClasses = { int.class, int.class };
+            ListenableFuture<Evaluator<Integer>> async = factory.createEvaluatorAsync(
+                    "return a - b;", int.class, argNames, argClasses,
+                    Collections.<String, Object> emptyMap());
+            FutureTask<Evaluator<Integer>> sync = new FutureTask<Evaluator<Integer>>(
+                    new Callable<Evaluator<Integer>>() {
+                @Override
+                public Evaluator<Integer> call() {
+                    return factory.createEvaluator("return a - b;", int.class, argNames,
+                            argClasses, Collections.<String, Object> emptyMap());
+                }
+            });
+            Thread thread = new Thread(sync);
+            thread.start();
+            // the synchronous request waits either for the compilation or for the
+            // asynchronous request of the same key
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            latch.countDown();
+
+            assertEquals(Integer.valueOf(1), sync.get(10, TimeUnit.SECONDS).evaluate(3, 2));
+            assertEquals(Integer.valueOf(1), async.get(10, TimeUnit.SECONDS).evaluate(3, 2));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void LookupCache() {
+        final List<String> resources = new ArrayList<String>();
+        factory = new ECJEvaluatorFactory(new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            public InputStream getResourceAsStream(String name) {
+                resources.add(name);
+                return super.getResourceAsStream(name);
+            }
+        });
+        test("a.substring(b)", String.class, names, string_int, Arrays.asList("Hello", 1), "ello");
+        int lookups = resources.size();
+        assertTrue(resources.contains("java/lang/String.class"));
+
+        resources.clear();
+        test("a.substring(b + 1)", String.class, names, string_int, Arrays.asList("Hello", 1), "llo");
+        assertTrue(resources.size() < lookups);
+        assertFalse(resources.contains("java/lang/String.class"));
+    }
+
+    @Test
+    public void HiddenClasses() {
+        ECJEvaluatorFactory ecj = (ECJEvaluatorFactory) factory;
+        ecj.setHiddenClasses(true);
+        assertEquals(HiddenClassDefiner.isSupported(), ecj.isHiddenClasses());
+        test("a.substring(b)", String.class, names, string_int, Arrays.asList("Hello", 1), "ello");
+        test("a + b", int.class, names, ints, Arrays.asList(1, 2), 3);
+        // nested classes are loaded by name
+        test("new Object() { public String toString() { return \"Hello\"; } }.toString() + b",
+                String.class, names, string_int, Arrays.asList("Hello", 1), "Hello1");
+        Evaluator<?> evaluator = factory.createEvaluator("return a + b + 1;", int.class,
+                new String[]{"a", "b"}, new Class<?>[]{int.class, int.class},
+                Collections.<String, Object> emptyMap());
+        assertEquals(4, evaluator.evaluate(1, 2));
+        // hidden classes have names, which can't be looked up
+        assertEquals(ecj.isHiddenClasses(), evaluator.getClass().getName().contains("/"));
+
+        ecj.setHiddenClasses(false);
+        assertFalse(ecj.isHiddenClasses());
+    }
+
+    @Test
+    public void Batch() {
+        Map<String, Object> noConstants = Collections.<String, Object> emptyMap();
+        String[] ab = new String[] { "a", "b" };
+        Class<?>[] intInt = new Class<?>[] { int.class, int.class };
+        List<Evaluator<?>> evaluators = factory.createEvaluators(Arrays.asList(
+                new EvaluatorSpec("return a * b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a - b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a * b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a.equals(b);", boolean.class, ab,
+                        new Class<?>[] { String.class, String.class }, noConstants)));
+        assertEquals(4, evaluators.size());
+        assertEquals(6, evaluators.get(0).evaluate(2, 3));
+        assertEquals(-1, evaluators.get(1).evaluate(2, 3));
+        assertEquals(6, evaluators.get(2).evaluate(2, 3));
+        assertEquals(Boolean.TRUE, evaluators.get(3).evaluate("x", "x"));
+    }
+
+    @Test
+    public void FailureCache() {
+        final List<Boolean> compilations = new ArrayList<Boolean>();
+        ECJEvaluatorFactory ecj = (ECJEvaluatorFactory) factory;
+        ecj.setListener(new EvaluatorFactoryListenerAdapter() {
+            @Override
+            public void compiled(Collection<String> ids, long nanos, boolean success) {
+                compilations.add(success);
+            }
+        });
+        String message = null;
+        for (int i = 0; i < 3; i++) {
+            try {
+                evaluate("a.foo()", int.class, names, ints, Arrays.asList(1, 2),
+                        Collections.<String, Object> emptyMap());
+                fail("expected CodegenException");
+            } catch (CodegenException e) {
+                assertTrue(e.getMessage().contains("foo"));
+                if (message == null) {
+                    message = e.getMessage();
+                } else {
+                    assertEquals(message, e.getMessage());
+                }
+            }
+        }
+        assertEquals(Arrays.asList(false), compilations);
+
+        // without failure cache
+        ecj.setFailureCache(0, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 2; i++) {
+            try {
+                evaluate("a.foo()", int.class, names, ints, Arrays.asList(1, 2),
+                        Collections.<String, Object> emptyMap());
+                fail("expected CodegenException");
+            } catch (CodegenException e) {
+                // expected
+            }
+        }
+        assertEquals(Arrays.asList(false, false, false), compilations);
+    }
+
+    @Test(expected = CodegenException.class)
+    public void Batch_Invalid() {
+        Map<String, Object> noConstants = Collections.<String, Object> emptyMap();
+        String[] ab = new String[] { "a", "b" };
+        Class<?>[] intInt = new Class<?>[] { int.class, int.class };
+        factory.createEvaluators(Arrays.asList(
+                new EvaluatorSpec("return a + b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a.foo();", int.class, ab, intInt, noConstants)));
+    }
+
     private void test(String source, Class<?> projectionType, List<String> names,
             List<Class<?>> types, List<?> args, Object expectedResult) {
         Assert.assertEquals(
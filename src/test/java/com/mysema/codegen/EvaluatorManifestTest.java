@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ *
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.model.TypeExtends;
+import com.mysema.codegen.model.TypeSuper;
+import com.mysema.codegen.model.Types;
+
+public class EvaluatorManifestTest {
+
+    private final ClassLoader classLoader = getClass().getClassLoader();
+
+    @Test
+    public void Write_And_Read() throws IOException {
+        ClassType stringList = new ClassType(TypeCategory.LIST, List.class, Types.STRING);
+        EvaluatorManifest manifest = new EvaluatorManifest();
+        manifest.add(new EvaluatorSpec("String s = \"a\\\\b\";\r\nreturn a;", stringList,
+                new String[] { "a", "b" }, new Type[] { stringList, Types.INT },
+                Collections.<String, Type> singletonMap("c", Types.STRING)));
+        manifest.add(new EvaluatorSpec("return a;", stringList, new String[] { "a" },
+                new Type[] { stringList }, Collections.<String, Type> emptyMap()));
+        manifest.add(new EvaluatorSpec("return a;", stringList, new String[] { "a" },
+                new Type[] { stringList }, Collections.<String, Type> emptyMap()));
+        assertEquals(2, manifest.size());
+
+        StringWriter writer = new StringWriter();
+        manifest.write(writer);
+        List<EvaluatorSpec> specs = EvaluatorManifest.read(new StringReader(writer.toString()),
+                classLoader).getSpecs();
+        assertEquals(2, specs.size());
+        EvaluatorSpec spec = specs.get(0);
+        assertEquals("String s = \"a\\\\b\";\r\nreturn a;", spec.getSource());
+        assertEquals(stringList, spec.getProjection());
+        assertArrayEquals(new String[] { "a", "b" }, spec.getNames());
+        assertArrayEquals(new Type[] { stringList, Types.INT }, spec.getTypes());
+        assertEquals(Types.STRING, spec.getConstantTypes().get("c"));
+    }
+
+    @Test
+    public void ParseType() throws IOException {
+        ClassType type = EvaluatorManifest.parseType(
+                "java.util.Map<java.lang.String, java.util.Map.Entry<?, int[]>>", classLoader);
+        assertEquals(Map.class, type.getJavaClass());
+        assertEquals(Types.STRING, type.getParameters().get(0));
+        Type entry = type.getParameters().get(1);
+        assertEquals(Map.Entry.class, entry.getJavaClass());
+        assertEquals(null, entry.getParameters().get(0));
+        assertEquals(int[].class, entry.getParameters().get(1).getJavaClass());
+    }
+
+    @Test
+    public void Bounded_Wildcards() throws IOException {
+        ClassType type = new ClassType(TypeCategory.MAP, Map.class,
+                new TypeExtends(Types.STRING),
+                new ClassType(TypeCategory.LIST, List.class, new TypeSuper(Types.INTEGER)));
+        EvaluatorManifest manifest = new EvaluatorManifest();
+        manifest.add(new EvaluatorSpec("return a;", type, new String[] { "a" },
+                new Type[] { type }, Collections.<String, Type> emptyMap()));
+
+        StringWriter writer = new StringWriter();
+        manifest.write(writer);
+        assertTrue(writer.toString(), writer.toString().contains("java.util.Map<"
+                + "? extends java.lang.String, java.util.List<? super java.lang.Integer>>"));
+        EvaluatorSpec spec = EvaluatorManifest.read(new StringReader(writer.toString()),
+                classLoader).getSpecs().get(0);
+        assertEquals(type.getGenericName(false), spec.getProjection().getGenericName(false));
+        assertEquals(new TypeExtends(Types.STRING), spec.getTypes()[0].getParameters().get(0));
+        assertEquals(new TypeSuper(Types.INTEGER),
+                spec.getTypes()[0].getParameters().get(1).getParameters().get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void Unknown_Class() throws IOException {
+        EvaluatorManifest.parseType("com.example.Missing", classLoader);
+    }
+
+}
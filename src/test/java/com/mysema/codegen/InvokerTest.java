@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ * 
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.Type;
+import com.mysema.codegen.model.Types;
+
+public class InvokerTest {
+
+    private final AbstractEvaluatorFactory factory = new ECJEvaluatorFactory(getClass().getClassLoader());
+
+    @Test
+    public void Direct_And_Reflective() {
+        Map<String, Object> constants = Collections.<String, Object>singletonMap("c", 3);
+        Evaluator<Integer> direct = factory.createEvaluator("return a * b + c;", Types.INT,
+                new String[]{"a", "b"}, new Type[]{Types.INT, Types.INT},
+                new Class<?>[]{int.class, int.class}, constants);
+        assertFalse(direct instanceof MethodEvaluator);
+        Evaluator<Integer> reflective = new MethodEvaluator<Integer>(
+                factory.findEvalMethod(direct.getClass()), constants, int.class);
+        assertEquals(Integer.valueOf(13), direct.evaluate(2, 5));
+        assertEquals(direct.evaluate(2, 5), reflective.evaluate(2, 5));
+    }
+
+    @Test
+    public void Type() {
+        Evaluator<String> evaluator = factory.createEvaluator("return a.substring(1);", String.class,
+                new String[]{"a"}, new Class<?>[]{String.class}, Collections.<String, Object>emptyMap());
+        assertEquals(String.class, evaluator.getType());
+        assertEquals("ello", evaluator.evaluate("Hello"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void Exception() {
+        Evaluator<Integer> evaluator = factory.createEvaluator("return a.length();",
+                new ClassType(int.class), new String[]{"a"}, new Type[]{Types.STRING},
+                new Class<?>[]{String.class}, Collections.<String, Object>emptyMap());
+        evaluator.evaluate((Object) null);
+    }
+
+}
@@ -69,6 +69,22 @@ public class JDKEvaluatorFactoryTest {
         }
     }
 
+    @Test
+    public void Repeated_Compilations() {
+        // every compilation is passed the class path of the parent class loader
+        EvaluatorFactoryMetrics metrics = new EvaluatorFactoryMetrics();
+        ((AbstractEvaluatorFactory) factory).setListener(metrics);
+        for (String suffix : Arrays.asList("", "!", "?")) {
+            assertEquals("Hello World" + suffix, evaluate("a.getName() + \"" + suffix + "\"",
+                    String.class, Collections.singletonList("a"),
+                    Collections.<Class<?>> singletonList(TestEntity.class),
+                    Arrays.asList(new TestEntity("Hello World")),
+                    Collections.<String, Object> emptyMap()));
+        }
+        assertEquals(3, metrics.getCompilations());
+        assertEquals(0, metrics.getCompileFailures());
+    }
+
     @Test
     public void Results() {
         // String + String
@@ -105,6 +121,46 @@ public class JDKEvaluatorFactoryTest {
                 Arrays.asList(new TestEntity("Hello World")), "Hello World");
     }
 
+    @Test
+    public void ClassLoader_ClassPath() {
+        // not a URLClassLoader
+        factory = new JDKEvaluatorFactory(new ClassLoader(getClass().getClassLoader()) {});
+        test("a + b", int.class, names, ints, Arrays.asList(1, 2), 3);
+        test("a.getName()", String.class, Collections.singletonList("a"),
+                Collections.<Class<?>> singletonList(TestEntity.class),
+                Arrays.asList(new TestEntity("Hello World")), "Hello World");
+        test("com.google.common.base.Strings.isNullOrEmpty(a)", boolean.class, names, strings,
+                Arrays.asList("", "b"), true);
+    }
+
+    @Test
+    public void Batch() {
+        Map<String, Object> noConstants = Collections.<String, Object> emptyMap();
+        String[] ab = new String[] { "a", "b" };
+        Class<?>[] intInt = new Class<?>[] { int.class, int.class };
+        List<Evaluator<?>> evaluators = factory.createEvaluators(Arrays.asList(
+                new EvaluatorSpec("return a * b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a - b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a * b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a.equals(b);", boolean.class, ab,
+                        new Class<?>[] { String.class, String.class }, noConstants)));
+        assertEquals(4, evaluators.size());
+        assertEquals(6, evaluators.get(0).evaluate(2, 3));
+        assertEquals(-1, evaluators.get(1).evaluate(2, 3));
+        assertEquals(6, evaluators.get(2).evaluate(2, 3));
+        assertEquals(Boolean.TRUE, evaluators.get(3).evaluate("x", "x"));
+    }
+
+    @Test(expected = CodegenException.class)
+    public void Batch_Invalid() {
+        Map<String, Object> noConstants = Collections.<String, Object> emptyMap();
+        String[] ab = new String[] { "a", "b" };
+        Class<?>[] intInt = new Class<?>[] { int.class, int.class };
+        factory.createEvaluators(Arrays.asList(
+                new EvaluatorSpec("return a + b;", int.class, ab, intInt, noConstants),
+                new EvaluatorSpec("return a.foo();", int.class, ab, intInt, noConstants)));
+    }
+
     private void test(String source, Class<?> projectionType, List<String> names,
             List<Class<?>> types, List<?> args, Object expectedResult) {
         Assert.assertEquals(
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ *
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemFileManagerTest {
+
+    private MemFileManager fileManager;
+
+    @Before
+    public void setUp() {
+        fileManager = new MemFileManager(getClass().getClassLoader(),
+                ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileManager.close();
+    }
+
+    @Test
+    public void List_By_Package() throws IOException {
+        write("Q_a", "p.Q_b", "p.Q_c", "p.q.Q_d", "r.Q_e");
+        assertEquals(names("Q_a"), list("", false));
+        assertEquals(names("p.Q_b", "p.Q_c"), list("p", false));
+        assertEquals(names("p.Q_b", "p.Q_c", "p.q.Q_d"), list("p", true));
+        assertEquals(names("p.q.Q_d"), list("p.q", false));
+        assertEquals(names(), list("s", false));
+        assertEquals(names(), names(fileManager.list(StandardLocation.CLASS_OUTPUT, "p",
+                EnumSet.of(Kind.SOURCE), false)));
+    }
+
+    @Test
+    public void Single_Generation_By_Default() throws IOException {
+        for (int i = 0; i < 200; i++) {
+            write("Q_" + i);
+            fileManager.retain(fileManager.getGeneration("Q_" + i), "Q_" + i);
+        }
+        assertEquals(1, fileManager.getGenerationCount());
+        assertSame(fileManager.getGeneration("Q_0"), fileManager.getGeneration("Q_199"));
+    }
+
+    @Test
+    public void Heap_Storage_By_Default() throws IOException {
+        write("Q_a");
+        assertEquals(ByteStorage.HEAP,
+                fileManager.getGeneration("Q_a").getClassLoader().getByteStorage());
+    }
+
+    @Test
+    public void List_Current_Generation() throws IOException {
+        fileManager.setGenerationSize(1);
+        write("p.Q_a");
+        assertEquals(names("p.Q_a"), list("p", false));
+        fileManager.retain(fileManager.getGeneration("p.Q_a"), "p.Q_a");
+        write("p.Q_b");
+        assertEquals(names("p.Q_b"), list("p", false));
+    }
+
+    @Test
+    public void Pinned_Generation() throws IOException {
+        fileManager.setGenerationSize(1);
+        fileManager.pinGeneration();
+        try {
+            write("Q_a");
+            Generation generation = fileManager.getGeneration("Q_a");
+            // a new generation is started during the compilation
+            fileManager.retain(generation, "Q_a");
+            fileManager.getJavaFileForOutput(StandardLocation.CLASS_OUTPUT, "Q_a$1", Kind.CLASS,
+                    null).openOutputStream().close();
+            assertSame(generation, fileManager.getGeneration("Q_a$1"));
+        } finally {
+            fileManager.unpinGeneration();
+        }
+        write("Q_b");
+        assertNotSame(fileManager.getGeneration("Q_a"), fileManager.getGeneration("Q_b"));
+    }
+
+    @Test
+    public void Retain_Counts_Classes_Once() throws IOException {
+        fileManager.setGenerationSize(2);
+        write("Q_a");
+        Generation generation = fileManager.getGeneration("Q_a");
+        fileManager.retain(generation, "Q_a");
+        fileManager.retain(generation, "Q_a");
+        write("Q_b");
+        assertSame(generation, fileManager.getGeneration("Q_b"));
+        fileManager.retain(generation, "Q_b");
+        write("Q_c");
+        assertNotSame(generation, fileManager.getGeneration("Q_c"));
+    }
+
+    private void write(String... classNames) throws IOException {
+        Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+        for (String className : classNames) {
+            classFiles.put(className, new byte[]{(byte) 0xCA, (byte) 0xFE});
+        }
+        fileManager.writeClasses(classFiles);
+    }
+
+    private Set<String> list(String packageName, boolean recurse) throws IOException {
+        return names(fileManager.list(StandardLocation.CLASS_OUTPUT, packageName,
+                EnumSet.of(Kind.CLASS), recurse));
+    }
+
+    private static Set<String> names(Iterable<JavaFileObject> files) {
+        Set<String> names = new TreeSet<String>();
+        for (JavaFileObject file : files) {
+            names.add(file.getName());
+        }
+        return names;
+    }
+
+    private static Set<String> names(String... names) {
+        return new TreeSet<String>(Arrays.asList(names));
+    }
+
+}
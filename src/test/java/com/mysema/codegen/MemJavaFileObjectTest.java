@@ -5,9 +5,11 @@
  */
 package com.mysema.codegen;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 
 import javax.tools.JavaFileObject.Kind;
@@ -33,4 +35,21 @@ public class MemJavaFileObjectTest {
         obj.openInputStream().close();
     }
 
+    @Test
+    public void store() throws IOException {
+        MemJavaFileObject obj = new MemJavaFileObject("mem", "Test", Kind.CLASS);
+        OutputStream out = obj.openOutputStream();
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        obj.store(ByteStorage.COMPACT);
+        assertEquals(3, obj.getSize());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, obj.getByteArray());
+
+        obj.store(ByteStorage.OFF_HEAP);
+        assertEquals(3, obj.getSize());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, obj.getByteArray());
+        assertEquals(1, obj.openInputStream().read());
+    }
+
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ * 
+ */
+package com.mysema.codegen;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class MethodEvaluatorTest {
+
+    private final AbstractEvaluatorFactory factory = new ECJEvaluatorFactory(getClass().getClassLoader());
+
+    private MethodEvaluator<Integer> create(String source, Map<String, Object> constants) {
+        Evaluator<Integer> evaluator = factory.createEvaluator(source, int.class,
+                new String[]{"a", "b"}, new Class<?>[]{int.class, int.class}, constants);
+        Method method = factory.findEvalMethod(evaluator.getClass());
+        return new MethodEvaluator<Integer>(method, constants, int.class);
+    }
+
+    @Test
+    public void Constants() {
+        MethodEvaluator<Integer> evaluator = create("return a * b + c;",
+                Collections.<String, Object>singletonMap("c", 3));
+        assertEquals(Integer.valueOf(13), evaluator.evaluate(2, 5));
+        assertEquals(Integer.valueOf(3), evaluator.evaluate(0, 5));
+    }
+
+    @Test
+    public void FixedArity() {
+        MethodEvaluator<Integer> evaluator = create("return a * b + c;",
+                Collections.<String, Object>singletonMap("c", 3));
+        assertEquals(Integer.valueOf(13), evaluator.evaluate(2, 5));
+        assertEquals(Integer.valueOf(13), evaluator.evaluate(2, 5, 7));
+    }
+
+    @Test
+    public void NoConstants() {
+        MethodEvaluator<Integer> evaluator = create("return a * b;",
+                Collections.<String, Object>emptyMap());
+        assertEquals(Integer.valueOf(10), evaluator.evaluate(2, 5));
+    }
+
+    @Test
+    public void Concurrent() throws Exception {
+        final MethodEvaluator<Integer> evaluator = create("return a * b + c;",
+                Collections.<String, Object>singletonMap("c", 3));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 4; i++) {
+                final int a = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int b = 0; b < 100000; b++) {
+                            if (evaluator.evaluate(a, b).intValue() != a * b + 3) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(Boolean.TRUE, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
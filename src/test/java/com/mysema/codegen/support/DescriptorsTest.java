@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 Mysema Ltd.
+ * All rights reserved.
+ *
+ */
+package com.mysema.codegen.support;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mysema.codegen.model.ClassType;
+import com.mysema.codegen.model.TypeCategory;
+import com.mysema.codegen.model.TypeExtends;
+import com.mysema.codegen.model.TypeSuper;
+import com.mysema.codegen.model.Types;
+
+public class DescriptorsTest {
+
+    @Test
+    public void InternalName() {
+        assertEquals("java/lang/String", Descriptors.getInternalName(String.class));
+        assertEquals("java/util/Map$Entry", Descriptors.getInternalName(Map.Entry.class));
+        assertEquals("java/util/Map$Entry",
+                Descriptors.getInternalName(new ClassType(Map.Entry.class)));
+    }
+
+    @Test
+    public void Descriptor() {
+        assertEquals("I", Descriptors.getDescriptor(int.class));
+        assertEquals("[[J", Descriptors.getDescriptor(long[][].class));
+        assertEquals("[Ljava/lang/String;", Descriptors.getDescriptor(String[].class));
+        assertEquals("I", Descriptors.getDescriptor(Types.INT));
+        assertEquals("Ljava/util/List;", Descriptors.getDescriptor(Types.LIST));
+        assertEquals("[Ljava/lang/String;",
+                Descriptors.getDescriptor(new ClassType(TypeCategory.ARRAY, String[].class)));
+    }
+
+    @Test
+    public void MethodDescriptor() {
+        assertEquals("(ILjava/lang/String;)V",
+                Descriptors.getMethodDescriptor(void.class, int.class, String.class));
+        assertEquals("()Ljava/lang/Object;", Descriptors.getMethodDescriptor(Object.class));
+        assertEquals("(Ljava/util/List;)Ljava/lang/String;",
+                Descriptors.getMethodDescriptor(Types.STRING, Types.LIST));
+    }
+
+    @Test
+    public void Signature() {
+        assertEquals("Ljava/lang/String;", Descriptors.getSignature(Types.STRING));
+        assertEquals("Ljava/util/List<Ljava/lang/String;>;",
+                Descriptors.getSignature(new ClassType(List.class, Types.STRING)));
+        assertEquals("Ljava/util/Map<Ljava/lang/String;+Ljava/lang/Number;>;",
+                Descriptors.getSignature(new ClassType(Map.class, Types.STRING,
+                        new TypeExtends(new ClassType(Number.class)))));
+        assertEquals("Ljava/util/List<-Ljava/lang/Integer;>;",
+                Descriptors.getSignature(new ClassType(List.class,
+                        new TypeSuper(new ClassType(Integer.class)))));
+        assertEquals("Ljava/util/List<*>;",
+                Descriptors.getSignature(new ClassType(List.class, (com.mysema.codegen.model.Type) null)));
+        assertEquals("Ljava/util/List<TT;>;",
+                Descriptors.getSignature(new ClassType(List.class, new TypeExtends("T", Types.OBJECT))));
+    }
+
+}